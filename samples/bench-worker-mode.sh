@@ -0,0 +1,49 @@
+#!/usr/bin/env bash
+#
+# Compares the peak memory and the wall time of the processes and threads worker modes.
+#
+# Usage: samples/bench-worker-mode.sh [sample dir] [runs]
+#
+# Each run compiles the sample from scratch with --no-daemon, in a session of its own. The peak
+# RSS is the highest sum of the RSS of all the processes of the session (gradle, the compiler JVM
+# and, in processes mode, its worker JVMs), sampled every 200 ms. /usr/bin/time -v only reports the
+# largest single process, which misses the worker JVMs.
+
+set -e
+
+SAMPLE=${1:-$(dirname "$0")/pgp-sample-webapp}
+RUNS=${2:-3}
+GRADLE=${GRADLE:-gradle}
+
+INIT=$(mktemp)
+trap 'rm -f "$INIT"' EXIT
+cat > "$INIT" <<'GROOVY'
+allprojects {
+	afterEvaluate { project ->
+		def putnami = project.extensions.findByName('putnami')
+		if (putnami != null) {
+			putnami.compile.workerMode = System.getenv('PUTNAMI_WORKER_MODE')
+		}
+	}
+}
+GROOVY
+
+echo "mode,run,wallMs,peakRssMb"
+for mode in processes threads; do
+	for run in $(seq 1 "$RUNS"); do
+		(cd "$SAMPLE" && "$GRADLE" -q --no-daemon clean > /dev/null)
+		start=$(date +%s%N)
+		(cd "$SAMPLE" && PUTNAMI_WORKER_MODE=$mode exec setsid "$GRADLE" -q --no-daemon -I "$INIT" gwtCompile > /dev/null) &
+		pid=$!
+		peak=0
+		while kill -0 $pid 2> /dev/null; do
+			sid=$(ps -o sid= -p $pid | tr -d ' ')
+			rss=$(ps -o rss= -s "${sid:-$pid}" 2> /dev/null | awk '{ s += $1 } END { print s + 0 }')
+			[ "$rss" -gt "$peak" ] && peak=$rss
+			sleep 0.2
+		done
+		wait $pid
+		end=$(date +%s%N)
+		echo "$mode,$run,$(( (end - start) / 1000000 )),$(( peak / 1024 ))"
+	done
+done
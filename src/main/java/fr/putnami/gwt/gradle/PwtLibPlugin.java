@@ -17,6 +17,7 @@ package fr.putnami.gwt.gradle;
 import org.gradle.api.Action;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.Task;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.ConfigurationContainer;
 import org.gradle.api.artifacts.dsl.DependencyHandler;
@@ -29,7 +30,11 @@ import org.gradle.api.tasks.bundling.Jar;
 import org.gradle.api.tasks.testing.Test;
 import org.gradle.plugins.ide.eclipse.model.EclipseModel;
 
+import java.io.Closeable;
+import java.io.IOException;
+
 import fr.putnami.gwt.gradle.extension.PutnamiExtension;
+import fr.putnami.gwt.gradle.helper.UnitCache;
 
 public class PwtLibPlugin implements Plugin<Project> {
 
@@ -90,7 +95,7 @@ public class PwtLibPlugin implements Plugin<Project> {
 		initGpe(project);
 	}
 
-	private void includeSourcesForTest(Project project) {
+	private void includeSourcesForTest(final Project project) {
 		JavaPluginConvention javaConvention = project.getConvention().getPlugin(JavaPluginConvention.class);
 		SourceSet mainSourset = javaConvention.getSourceSets().getByName(SourceSet.MAIN_SOURCE_SET_NAME);
 		SourceSet testSourset = javaConvention.getSourceSets().getByName(SourceSet.TEST_SOURCE_SET_NAME);
@@ -101,8 +106,50 @@ public class PwtLibPlugin implements Plugin<Project> {
 			.plus(testSourset.getRuntimeClasspath());
 		testSourset.setRuntimeClasspath(testClasspath);
 
-		Test test = project.getTasks().withType(Test.class).getByName("test");
-		test.getSystemProperties().put("gwt.persistentunitcachedir", project.getBuildDir() + "/putnami/test");
+		final PutnamiExtension putnami = project.getExtensions().getByType(PutnamiExtension.class);
+		project.getTasks().withType(Test.class, new Action<Test>() {
+			@Override
+			public void execute(Test test) {
+				if (putnami.isSharedUnitCache()) {
+					useSharedUnitCache(project, test);
+				} else {
+					test.getSystemProperties().put("gwt.persistentunitcachedir", project.getBuildDir() + "/putnami/test");
+				}
+			}
+		});
+	}
+
+	/**
+	 * The test task holds the shared lock of the unit cache while it runs.
+	 */
+	private void useSharedUnitCache(Project project, final Test test) {
+		final UnitCache unitCache = UnitCache.of(project, null);
+		final Closeable[] unitCacheLease = new Closeable[1];
+		test.doFirst(new Action<Task>() {
+			@Override
+			public void execute(Task task) {
+				try {
+					unitCacheLease[0] = unitCache.acquire();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+				test.getSystemProperties().put(UnitCache.DIR_PROPERTY, unitCache.getDir().getAbsolutePath());
+			}
+		});
+		project.getGradle().getTaskGraph().afterTask(new Action<Task>() {
+			@Override
+			public void execute(Task task) {
+				if (task == test && unitCacheLease[0] != null) {
+					try {
+						unitCacheLease[0].close();
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					} finally {
+						unitCacheLease[0] = null;
+					}
+				}
+			}
+		});
 	}
 
 	private void includeSourcesToJar(Project project) {
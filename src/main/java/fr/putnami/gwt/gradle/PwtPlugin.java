@@ -33,6 +33,7 @@ import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.Task;
 import org.gradle.api.artifacts.ConfigurationContainer;
+import org.gradle.api.execution.TaskExecutionGraph;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.logging.Logging;
 import org.gradle.api.plugins.JavaBasePlugin;
@@ -42,10 +43,14 @@ import org.gradle.api.tasks.bundling.War;
 import fr.putnami.gwt.gradle.extension.PutnamiExtension;
 import fr.putnami.gwt.gradle.task.GwtCheckTask;
 import fr.putnami.gwt.gradle.task.GwtCodeServerTask;
+import fr.putnami.gwt.gradle.task.GwtCompilePermsTask;
 import fr.putnami.gwt.gradle.task.GwtCompileTask;
 import fr.putnami.gwt.gradle.task.GwtDevTask;
+import fr.putnami.gwt.gradle.task.GwtLinkTask;
+import fr.putnami.gwt.gradle.task.GwtPrecompileTask;
 import fr.putnami.gwt.gradle.task.GwtRunTask;
 import fr.putnami.gwt.gradle.task.GwtStopTask;
+import fr.putnami.gwt.gradle.task.GwtWorkerTask;
 
 public class PwtPlugin implements Plugin<Project> {
 
@@ -60,6 +65,8 @@ public class PwtPlugin implements Plugin<Project> {
 		// createSetUpTask(project);
 		createCheckTask(project);
 		createCompileTask(project);
+		createSplitCompileTasks(project);
+		createWorkerTask(project);
 		createCodeServerTask(project);
 		createDevTask(project);
 		createRunTask(project);
@@ -100,6 +107,16 @@ public class PwtPlugin implements Plugin<Project> {
 				task.configure(project, extension);
 			}
 		});
+		// The compilation checks the modules, even when its outputs come from the build cache.
+		project.getGradle().getTaskGraph().whenReady(new Action<TaskExecutionGraph>() {
+			@Override
+			public void execute(TaskExecutionGraph graph) {
+				Task compileTask = project.getTasks().findByName(GwtCompileTask.NAME);
+				if (compileTask != null && graph.hasTask(compileTask)) {
+					project.getTasks().getByName(GwtCheckTask.NAME).setEnabled(false);
+				}
+			}
+		});
 	}
 
 	private void createCompileTask(final Project project) {
@@ -114,6 +131,13 @@ public class PwtPlugin implements Plugin<Project> {
 				warTask.from(extension.getCompile().getWar());
 			}
 		});
+		// Applied once, before the compile tasks read the compiler options.
+		project.afterEvaluate(new Action<Project>() {
+			@Override
+			public void execute(final Project p) {
+				GwtCompileTask.applyProfile(p, extension);
+			}
+		});
 
 		ConfigurationContainer configurationContainer = project.getConfigurations();
 		//		Configuration gwtConfig = configurationContainer.getByName(PwtLibPlugin.CONF_GWT_SDM);
@@ -121,6 +145,57 @@ public class PwtPlugin implements Plugin<Project> {
 		//		warTask.setClasspath(warClasspath);
 	}
 
+	private void createSplitCompileTasks(final Project project) {
+		project.getTasks().create(GwtPrecompileTask.NAME, GwtPrecompileTask.class);
+		project.getTasks().create(GwtCompilePermsTask.NAME, GwtCompilePermsTask.class);
+		project.getTasks().create(GwtLinkTask.NAME, GwtLinkTask.class);
+		final PutnamiExtension extension = project.getExtensions().getByType(PutnamiExtension.class);
+		project.getTasks().withType(GwtPrecompileTask.class, new Action<GwtPrecompileTask>() {
+			@Override
+			public void execute(final GwtPrecompileTask task) {
+				task.configure(project, extension);
+			}
+		});
+		project.getTasks().withType(GwtCompilePermsTask.class, new Action<GwtCompilePermsTask>() {
+			@Override
+			public void execute(final GwtCompilePermsTask task) {
+				task.configure(project, extension);
+			}
+		});
+		project.getTasks().withType(GwtLinkTask.class, new Action<GwtLinkTask>() {
+			@Override
+			public void execute(final GwtLinkTask task) {
+				task.configure(project, extension);
+			}
+		});
+		// The split compilation replaces the compile task, which stays the entry point of the war. The
+		// sharded compilations are split, the merge of the shards links their permutations with the
+		// precompilation they ship.
+		project.afterEvaluate(new Action<Project>() {
+			@Override
+			public void execute(final Project p) {
+				boolean merge = p.hasProperty(GwtLinkTask.SHARD_DIRS_PROPERTY);
+				boolean precompiled = p.hasProperty(GwtCompilePermsTask.PRECOMPILE_DIR_PROPERTY);
+				if (Boolean.TRUE.equals(extension.getCompile().getSplitCompile())
+					|| p.hasProperty(GwtCompilePermsTask.SHARD_PROPERTY) || merge || precompiled) {
+					Task compileTask = p.getTasks().getByName(GwtCompileTask.NAME);
+					compileTask.dependsOn(GwtLinkTask.NAME);
+					compileTask.setEnabled(false);
+				}
+				if (merge || precompiled) {
+					p.getTasks().getByName(GwtPrecompileTask.NAME).setEnabled(false);
+				}
+				if (merge) {
+					p.getTasks().getByName(GwtCompilePermsTask.NAME).setEnabled(false);
+				}
+			}
+		});
+	}
+
+	private void createWorkerTask(final Project project) {
+		project.getTasks().create(GwtWorkerTask.NAME, GwtWorkerTask.class);
+	}
+
 	private void createRunTask(final Project project) {
 		project.getTasks().create(GwtRunTask.NAME, GwtRunTask.class);
 	}
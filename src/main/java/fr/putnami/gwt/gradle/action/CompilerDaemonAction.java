@@ -0,0 +1,273 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.action;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+
+import org.gradle.api.Task;
+import org.gradle.internal.jvm.Jvm;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import fr.putnami.gwt.gradle.daemon.CompilerDaemon;
+import fr.putnami.gwt.gradle.helper.JavaExecutor;
+import fr.putnami.gwt.gradle.util.ResourceUtils;
+
+/**
+ * Runs the java command in a {@link CompilerDaemon} instead of forking a new JVM.
+ * <p>
+ * Daemons are keyed by the java executable, the JVM args and the SDK classpath. The system
+ * properties (-D) are applied per request, so projects with different settings share the same
+ * daemon, except the ones read once per JVM (the unit cache folder) which are JVM args of the daemon.
+ */
+public class CompilerDaemonAction extends JavaAction {
+
+	private static final long START_TIMEOUT = 60000L;
+	private static final int HANDSHAKE_TIMEOUT = 5000;
+
+	private final List<String> classPath;
+	private final String sdkClassPath;
+	private final File daemonDir;
+	private final int idleTimeout;
+	private final int maxHeapUsage;
+
+	private Socket socket;
+	private int exitValue = -1;
+
+	public CompilerDaemonAction(JavaExecutor java, List<String> classPath, String sdkClassPath, File daemonDir,
+		int idleTimeout, int maxHeapUsage) {
+		super(java);
+		this.classPath = classPath;
+		this.sdkClassPath = sdkClassPath;
+		this.daemonDir = daemonDir;
+		this.idleTimeout = idleTimeout;
+		this.maxHeapUsage = maxHeapUsage;
+	}
+
+	@Override
+	public void execute(Task task) {
+		JavaExecutor javaCommand = getJavaCommand();
+		List<String> daemonJvmArgs = new ArrayList<>();
+		for (String jvmArg : javaCommand.getJvmArgs()) {
+			if (!JavaExecutor.isSystemProperty(jvmArg) || JavaExecutor.isJvmWideProperty(jvmArg)) {
+				daemonJvmArgs.add(jvmArg);
+			}
+		}
+
+		try {
+			File pluginJar = new File(CompilerDaemon.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+			String javaExec = javaCommand.getJavaExec();
+			if (javaExec == null) {
+				javaExec = Jvm.current().getJavaExecutable().getAbsolutePath();
+			}
+			String key = Hashing.sha256()
+				.hashString(Joiner.on('\n').join(javaExec, pluginJar, sdkClassPath, daemonJvmArgs), Charsets.UTF_8)
+				.toString().substring(0, 16);
+			File keyDir = new File(daemonDir, key);
+			File portFile = new File(keyDir, "daemon.port");
+			List<String> daemonArgs = Lists.newArrayList(
+				portFile.getAbsolutePath(),
+				String.valueOf(idleTimeout),
+				String.valueOf(maxHeapUsage),
+				sdkClassPath);
+			JavaExecutor daemonCommand = new JavaExecutor(javaExec, daemonJvmArgs,
+				new String[] {pluginJar.getAbsolutePath()}, CompilerDaemon.class.getName(), daemonArgs);
+
+			task.getLogger().info("Using GWT compiler daemon " + keyDir);
+			task.getLogger().info(javaCommand.getCommandLine());
+			socket = connect(task, portFile, daemonCommand);
+
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			out.writeUTF(javaCommand.getEntryPoint());
+			writeList(out, classPath);
+			List<String> propertyList = Lists.newArrayList();
+			for (Map.Entry<String, String> property : javaCommand.getSystemProperties().entrySet()) {
+				propertyList.add(property.getKey() + "=" + property.getValue());
+			}
+			writeList(out, propertyList);
+			writeList(out, javaCommand.getArgs());
+			out.flush();
+
+			Charset charset = Charset.defaultCharset();
+			StringBuilder pendingLine = new StringBuilder();
+			byte type = in.readByte();
+			while (type != CompilerDaemon.FRAME_EXIT) {
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				String text = new String(bytes, charset);
+				if (type == CompilerDaemon.FRAME_ERR) {
+					System.err.print(text);
+				} else {
+					System.out.print(text);
+					notifyLines(pendingLine.append(text));
+				}
+				type = in.readByte();
+			}
+			exitValue = in.readInt();
+		} catch (IOException | InterruptedException | URISyntaxException e) {
+			throw new RuntimeException(e);
+		} finally {
+			kill();
+		}
+	}
+
+	private Socket connect(Task task, File portFile, JavaExecutor daemonCommand)
+		throws IOException, InterruptedException {
+		File keyDir = portFile.getParentFile();
+		Socket result = tryConnect(portFile);
+		if (result != null) {
+			return result;
+		}
+		ResourceUtils.ensureDir(keyDir);
+		try (
+			FileChannel channel = FileChannel.open(new File(keyDir, "daemon.lock").toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			FileLock lock = channel.lock()) {
+			result = tryConnect(portFile);
+			if (result != null) {
+				return result;
+			}
+			portFile.delete();
+
+			File logFile = new File(keyDir, "daemon.log");
+			task.getLogger().lifecycle("Starting GWT compiler daemon (" + keyDir + ")");
+			Process process = new ProcessBuilder(daemonCommand.getCommand())
+				.redirectErrorStream(true)
+				.redirectOutput(logFile)
+				.start();
+
+			long deadline = System.currentTimeMillis() + START_TIMEOUT;
+			while (System.currentTimeMillis() < deadline) {
+				result = tryConnect(portFile);
+				if (result != null) {
+					return result;
+				}
+				if (!isRunning(process)) {
+					throw new IOException("GWT compiler daemon failed to start, see " + logFile);
+				}
+				Thread.sleep(200L);
+			}
+			process.destroy();
+			throw new IOException("GWT compiler daemon did not start in time, see " + logFile);
+		}
+	}
+
+	private Socket tryConnect(File portFile) {
+		if (!portFile.exists()) {
+			return null;
+		}
+		Socket result = null;
+		try {
+			List<String> lines = Files.readAllLines(portFile.toPath(), Charsets.UTF_8);
+			int port = Integer.parseInt(lines.get(0));
+			String cookie = lines.get(1);
+
+			result = new Socket(InetAddress.getLoopbackAddress(), port);
+			result.setSoTimeout(HANDSHAKE_TIMEOUT);
+			DataOutputStream out = new DataOutputStream(result.getOutputStream());
+			out.writeUTF(cookie);
+			out.flush();
+			if (!cookie.equals(new DataInputStream(result.getInputStream()).readUTF())) {
+				result.close();
+				return null;
+			}
+			result.setSoTimeout(0);
+			return result;
+		} catch (IOException | RuntimeException e) {
+			if (result != null) {
+				try {
+					result.close();
+				} catch (IOException ignored) {
+					// nothing to do
+				}
+			}
+			return null;
+		}
+	}
+
+	private static boolean isRunning(Process process) {
+		try {
+			process.exitValue();
+			return false;
+		} catch (IllegalThreadStateException e) {
+			return true;
+		}
+	}
+
+	private static void writeList(DataOutputStream out, Collection<String> values) throws IOException {
+		out.writeInt(values.size());
+		for (String value : values) {
+			out.writeUTF(value);
+		}
+	}
+
+	@Override
+	public void kill() {
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// nothing to do
+			}
+			socket = null;
+		}
+	}
+
+	private void notifyLines(StringBuilder text) {
+		int end = text.indexOf("\n");
+		while (end >= 0) {
+			String line = text.substring(0, end);
+			for (LineListener listener : getOutputListeners()) {
+				listener.onLine(line);
+			}
+			text.delete(0, end + 1);
+			end = text.indexOf("\n");
+		}
+	}
+
+	@Override
+	public void join() {
+		// the request is served synchronously in execute
+	}
+
+	@Override
+	public int exitValue() {
+		return exitValue;
+	}
+
+	@Override
+	public boolean isAlive() {
+		return socket != null;
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.action;
+
+import org.gradle.api.Task;
+
+import java.util.List;
+
+import fr.putnami.gwt.gradle.helper.JavaExecutor;
+
+/**
+ * Runs the java command in the gradle daemon rather than in a forked JVM. The JVM args other than
+ * system properties are ignored.
+ */
+public class InProcessJavaAction extends JavaAction {
+
+	private final List<String> sharedClassPath;
+
+	private int exitValue = -1;
+
+	public InProcessJavaAction(JavaExecutor java, List<String> sharedClassPath) {
+		super(java);
+		this.sharedClassPath = sharedClassPath;
+	}
+
+	@Override
+	public void execute(Task task) {
+		task.getLogger().info("In process: " + getJavaCommand().getCommandLine());
+		try {
+			exitValue = getJavaCommand().run(sharedClassPath);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void kill() {
+		// runs synchronously in execute
+	}
+
+	@Override
+	public void join() {
+		// runs synchronously in execute
+	}
+
+	@Override
+	public int exitValue() {
+		return exitValue;
+	}
+
+	@Override
+	public boolean isAlive() {
+		return false;
+	}
+}
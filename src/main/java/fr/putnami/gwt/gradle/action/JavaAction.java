@@ -14,25 +14,39 @@
  */
 package fr.putnami.gwt.gradle.action;
 
+import com.google.common.base.Joiner;
+
 import org.gradle.api.Action;
 import org.gradle.api.Task;
 import org.gradle.api.logging.LogLevel;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 
 import fr.putnami.gwt.gradle.helper.JavaExecutor;
 
 public class JavaAction implements Action<Task> {
 
+	private static final long LOGGER_JOIN_TIMEOUT = 5000;
+
 	private final JavaExecutor javaCommand;
 
 	private Process process;
+	private Thread shutdownHook;
 
 	private ProcessLogger errorLogger = new ProcessLogger();
 	private ProcessLogger infoLogger = new ProcessLogger();
+	private int verboseLogLines;
+	private boolean verboseOutput;
+	private final List<LineListener> outputListeners = new ArrayList<>();
 
 	public JavaAction(JavaExecutor java) {
 		super();
@@ -49,23 +63,36 @@ public class JavaAction implements Action<Task> {
 			task.getLogger().info(javaCommand.getCommandLine());
 			process = javaCommand.runProcess();
 
-			Runtime.getRuntime().addShutdownHook(new Thread() {
+			shutdownHook = new Thread() {
 				@Override
 				public void run() {
 					kill();
 				}
-			});
+			};
+			Runtime.getRuntime().addShutdownHook(shutdownHook);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 		errorLogger.setStream(process.getErrorStream());
 		errorLogger.setLevel(LogLevel.ERROR);
+		errorLogger.setLogger(task.getLogger());
+		errorLogger.setVerboseLines(verboseLogLines);
 		errorLogger.start();
 		infoLogger.setStream(process.getInputStream());
-		errorLogger.setLevel(LogLevel.INFO);
+		infoLogger.setLevel(LogLevel.LIFECYCLE);
+		infoLogger.setLogger(task.getLogger());
+		infoLogger.setVerboseLines(verboseLogLines);
+		infoLogger.setVerboseOutput(verboseOutput);
+		for (LineListener listener : outputListeners) {
+			infoLogger.addListener(listener);
+		}
 		infoLogger.start();
 	}
 
+	protected JavaExecutor getJavaCommand() {
+		return javaCommand;
+	}
+
 	public void setErrorLogger(ProcessLogger errorLogger) {
 		this.errorLogger = errorLogger;
 	}
@@ -74,6 +101,31 @@ public class JavaAction implements Action<Task> {
 		this.infoLogger = infoLogger;
 	}
 
+	/**
+	 * Adds a listener notified of each line of the process output.
+	 */
+	public void addOutputListener(LineListener listener) {
+		outputListeners.add(listener);
+	}
+
+	protected List<LineListener> getOutputListeners() {
+		return outputListeners;
+	}
+
+	/**
+	 * Number of verbose lines kept to be logged when the process fails.
+	 */
+	public void setVerboseLogLines(int verboseLogLines) {
+		this.verboseLogLines = verboseLogLines;
+	}
+
+	/**
+	 * The process runs with a verbose log level, its unlabeled output lines are verbose.
+	 */
+	public void setVerboseOutput(boolean verboseOutput) {
+		this.verboseOutput = verboseOutput;
+	}
+
 	public void kill() {
 		errorLogger.quitLogger();
 		infoLogger.quitLogger();
@@ -87,9 +139,35 @@ public class JavaAction implements Action<Task> {
 		if (process != null) {
 			try {
 				process.waitFor();
+				joinLogger(errorLogger);
+				joinLogger(infoLogger);
 			} catch (InterruptedException e) {
 				throw new RuntimeException(e);
 			}
+			removeShutdownHook();
+			if (process.exitValue() != 0) {
+				infoLogger.logRecentLines();
+				errorLogger.logRecentLines();
+			}
+		}
+	}
+
+	private synchronized void removeShutdownHook() {
+		if (shutdownHook != null && shutdownHook != Thread.currentThread()) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException e) {
+				// the JVM is shutting down, the hook is running
+			}
+		}
+		shutdownHook = null;
+	}
+
+	private static void joinLogger(ProcessLogger logger) throws InterruptedException {
+		// The process may be killed from its logger. The output may still be held by a child of the
+		// process, the wait is bounded.
+		if (logger != Thread.currentThread()) {
+			logger.join(LOGGER_JOIN_TIMEOUT);
 		}
 	}
 
@@ -110,10 +188,40 @@ public class JavaAction implements Action<Task> {
 		}
 	}
 
+	public interface LineListener {
+		void onLine(String line);
+	}
+
+	/**
+	 * Pumps a process stream to the gradle logger.
+	 * <p>
+	 * GWT only labels its WARN and ERROR lines, the label applies to the line and to its children,
+	 * the following lines indented deeper. The other lines have the level of the stream, or are
+	 * verbose when the process runs with a verbose log level (TRACE and below). The lines read in a
+	 * row with the same level are logged at once. The verbose lines not enabled in the gradle logger
+	 * are kept in a ring buffer, logged when the process fails.
+	 * </p>
+	 */
 	public static class ProcessLogger extends Thread {
+		private static final int BATCH_SIZE = 64 * 1024;
+
 		private InputStream stream;
-		private LogLevel level;
-		private boolean quit = false;
+		private LogLevel level = LogLevel.LIFECYCLE;
+		private Logger logger = Logging.getLogger(JavaAction.class);
+		private int verboseLines;
+		private boolean verboseOutput;
+		private volatile boolean quit = false;
+
+		private final List<LineListener> listeners = new ArrayList<>();
+		private final Deque<String> recentLines = new ArrayDeque<>();
+		private final StringBuilder batch = new StringBuilder();
+		private LogLevel batchLevel;
+		private LogLevel labelLevel;
+		private int labelIndent;
+
+		public ProcessLogger() {
+			setDaemon(true);
+		}
 
 		public void setStream(InputStream stream) {
 			this.stream = stream;
@@ -123,25 +231,119 @@ public class JavaAction implements Action<Task> {
 			this.level = level;
 		}
 
+		public void setLogger(Logger logger) {
+			this.logger = logger;
+		}
+
+		public void setVerboseLines(int verboseLines) {
+			this.verboseLines = verboseLines;
+		}
+
+		public void setVerboseOutput(boolean verboseOutput) {
+			this.verboseOutput = verboseOutput;
+		}
+
+		public void addListener(LineListener listener) {
+			listeners.add(listener);
+		}
+
 		@Override
 		public void run() {
-			try (BufferedReader input = new BufferedReader(new InputStreamReader(stream))) {
+			try (BufferedReader input = new BufferedReader(new InputStreamReader(stream), BATCH_SIZE)) {
 				String line = input.readLine();
 				while (!quit && line != null) {
+					for (LineListener listener : listeners) {
+						listener.onLine(line);
+					}
 					printLine(line);
+					if (!input.ready()) {
+						flush();
+					}
 					line = input.readLine();
 				}
-				stream.close();
 			} catch (IOException e) {
 				throw new RuntimeException(e);
+			} finally {
+				flush();
 			}
 		}
 
 		protected void printLine(String line) {
-			if (level == LogLevel.ERROR) {
-				System.err.println(line);
-			} else {
-				System.out.println(line);
+			LogLevel currentLevel = parseLevel(line);
+			if ((currentLevel == LogLevel.INFO || currentLevel == LogLevel.DEBUG) && !logger.isEnabled(currentLevel)) {
+				keepRecentLine(line);
+				return;
+			}
+			if (currentLevel != batchLevel || batch.length() > BATCH_SIZE) {
+				flush();
+				batchLevel = currentLevel;
+			}
+			if (batch.length() > 0) {
+				batch.append('\n');
+			}
+			batch.append(line);
+		}
+
+		private LogLevel parseLevel(String line) {
+			int indent = 0;
+			while (indent < line.length() && Character.isWhitespace(line.charAt(indent))) {
+				indent++;
+			}
+			if (line.startsWith("[", indent)) {
+				int end = line.indexOf(']', indent);
+				LogLevel lineLevel = end < 0 ? null : toLogLevel(line.substring(indent + 1, end));
+				if (lineLevel != null) {
+					labelLevel = lineLevel;
+					labelIndent = indent;
+					return lineLevel;
+				}
+			}
+			if (labelLevel != null && indent > labelIndent && indent < line.length()) {
+				return labelLevel;
+			}
+			labelLevel = null;
+			return verboseOutput ? LogLevel.INFO : level;
+		}
+
+		private static LogLevel toLogLevel(String label) {
+			switch (label) {
+				case "ERROR":
+					return LogLevel.ERROR;
+				case "WARN":
+					return LogLevel.WARN;
+				default:
+					return null;
+			}
+		}
+
+		private void flush() {
+			if (batch.length() > 0) {
+				logger.log(batchLevel, batch.toString());
+				batch.setLength(0);
+			}
+		}
+
+		private void keepRecentLine(String line) {
+			if (verboseLines <= 0) {
+				return;
+			}
+			synchronized (recentLines) {
+				if (recentLines.size() >= verboseLines) {
+					recentLines.removeFirst();
+				}
+				recentLines.addLast(line);
+			}
+		}
+
+		/**
+		 * Logs the verbose lines kept in the ring buffer.
+		 */
+		public void logRecentLines() {
+			synchronized (recentLines) {
+				if (!recentLines.isEmpty()) {
+					logger.lifecycle("Last " + recentLines.size() + " verbose lines:\n" + Joiner.on('\n').join(recentLines));
+					recentLines.clear();
+				}
 			}
 		}
 
@@ -0,0 +1,138 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.action;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import fr.putnami.gwt.gradle.helper.UnitCache;
+import fr.putnami.gwt.gradle.util.FolderLock;
+import fr.putnami.gwt.gradle.util.MainRunner;
+
+/**
+ * Runs an entry point in a gradle worker process, the classpath is set by the worker configuration.
+ * The standard output goes to the build output, it is also written in the output log, if any, each
+ * line prefixed by its time in milliseconds and a tab.
+ */
+public class JavaWorkerAction implements Runnable {
+
+	private final String entryPoint;
+	private final List<String> args;
+	private final Map<String, String> systemProperties;
+	private final String outputLog;
+
+	@Inject
+	public JavaWorkerAction(String entryPoint, List<String> args, Map<String, String> systemProperties,
+		String outputLog) {
+		this.entryPoint = entryPoint;
+		this.args = args;
+		this.systemProperties = systemProperties;
+		this.outputLog = outputLog;
+	}
+
+	@Override
+	public void run() {
+		int status;
+		try {
+			// Gradle reuses the worker, GWT keeps the unit cache of its first run.
+			String unitCacheDir = System.getProperty(UnitCache.DIR_PROPERTY);
+			if (unitCacheDir != null) {
+				FolderLock.holdUntilExit(new File(unitCacheDir));
+			}
+			if (outputLog.isEmpty()) {
+				status = MainRunner.run(getClass().getClassLoader(), entryPoint, args.toArray(new String[0]),
+					systemProperties);
+			} else {
+				status = runLogged(new File(outputLog));
+			}
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		if (status != 0) {
+			throw new RuntimeException(entryPoint + " failed with exit status " + status);
+		}
+	}
+
+	private int runLogged(File log) throws Exception {
+		log.getParentFile().mkdirs();
+		PrintStream previousOut = System.out;
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(log), StandardCharsets.UTF_8)) {
+			System.setOut(new PrintStream(new TimedLineTee(previousOut, writer), true));
+			try {
+				return MainRunner.run(getClass().getClassLoader(), entryPoint, args.toArray(new String[0]),
+					systemProperties);
+			} finally {
+				System.out.flush();
+				System.setOut(previousOut);
+			}
+		}
+	}
+
+	/**
+	 * Forwards the output and writes each complete line in the log with its time.
+	 */
+	private static final class TimedLineTee extends OutputStream {
+		private final OutputStream out;
+		private final Writer log;
+		private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+		private TimedLineTee(OutputStream out, Writer log) {
+			this.out = out;
+			this.log = log;
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			for (int i = off; i < off + len; i++) {
+				append(b[i]);
+			}
+		}
+
+		@Override
+		public synchronized void write(int b) throws IOException {
+			out.write(b);
+			append(b);
+		}
+
+		private void append(int b) throws IOException {
+			if (b == '\n') {
+				String text = new String(line.toByteArray(), Charset.defaultCharset());
+				line.reset();
+				log.write(System.currentTimeMillis() + "\t" + text + "\n");
+			} else if (b != '\r') {
+				line.write(b);
+			}
+		}
+
+		@Override
+		public synchronized void flush() throws IOException {
+			out.flush();
+			log.flush();
+		}
+	}
+}
@@ -0,0 +1,266 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.daemon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.putnami.gwt.gradle.helper.UnitCache;
+import fr.putnami.gwt.gradle.util.FolderLock;
+import fr.putnami.gwt.gradle.util.MainRunner;
+
+/**
+ * Long-lived JVM keeping the GWT SDK loaded and warm between compilations.
+ * <p>
+ * The daemon listens on the loopback interface and writes its port and a secret cookie in the port
+ * file. Requests are served one after another, each one in a fresh class loader holding the project
+ * classpath on top of the shared SDK class loader. The daemon stops itself when idle for too long or
+ * when the memory is short.
+ * <p>
+ * This class only depends on the JDK, it runs outside of Gradle.
+ */
+public final class CompilerDaemon {
+
+	public static final byte FRAME_OUT = 1;
+	public static final byte FRAME_ERR = 2;
+	public static final byte FRAME_EXIT = 3;
+
+	private static final int POLL_MILLIS = 10000;
+	private static final int MIN_FREE_PHYSICAL_PERCENT = 5;
+
+	private final File portFile;
+	private final long idleTimeout;
+	private final int maxHeapUsage;
+	private final ClassLoader sdkLoader;
+	private final String cookie;
+
+	private CompilerDaemon(File portFile, long idleTimeout, int maxHeapUsage, ClassLoader sdkLoader) {
+		this.portFile = portFile;
+		this.idleTimeout = idleTimeout;
+		this.maxHeapUsage = maxHeapUsage;
+		this.sdkLoader = sdkLoader;
+		this.cookie = Long.toHexString(new SecureRandom().nextLong());
+	}
+
+	/**
+	 * Arguments: port file, idle timeout in minutes, max heap usage in percent, SDK classpath.
+	 */
+	public static void main(String[] args) throws Exception {
+		File portFile = new File(args[0]);
+		long idleTimeout = Long.parseLong(args[1]) * 60L * 1000L;
+		int maxHeapUsage = Integer.parseInt(args[2]);
+		// GWT keeps the unit cache of the first compilation, the folder is locked until the daemon stops.
+		String unitCacheDir = System.getProperty(UnitCache.DIR_PROPERTY);
+		if (unitCacheDir != null) {
+			FolderLock.holdUntilExit(new File(unitCacheDir));
+		}
+		ClassLoader sdkLoader = new URLClassLoader(toUrls(args[3].split(File.pathSeparator)),
+			CompilerDaemon.class.getClassLoader());
+
+		new CompilerDaemon(portFile, idleTimeout, maxHeapUsage, sdkLoader).serve();
+		System.exit(0);
+	}
+
+	private void serve() throws IOException {
+		try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			server.setSoTimeout(POLL_MILLIS);
+			writePortFile(server.getLocalPort());
+			long lastUse = System.currentTimeMillis();
+			while (true) {
+				Socket socket;
+				try {
+					socket = server.accept();
+				} catch (SocketTimeoutException e) {
+					if (System.currentTimeMillis() - lastUse > idleTimeout || isPhysicalMemoryShort()) {
+						break;
+					}
+					continue;
+				}
+				// A client lost during a request fails that request only, the daemon keeps serving.
+				try {
+					handle(socket);
+				} catch (IOException e) {
+					System.err.println("Request failed: " + e);
+				} finally {
+					closeQuietly(socket);
+				}
+				lastUse = System.currentTimeMillis();
+				if (isHeapShort()) {
+					break;
+				}
+			}
+		} finally {
+			portFile.delete();
+		}
+	}
+
+	private void handle(Socket socket) throws IOException {
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+		if (!cookie.equals(in.readUTF())) {
+			return;
+		}
+		out.writeUTF(cookie);
+		out.flush();
+		String mainClass = in.readUTF();
+		List<String> classPath = readList(in);
+		Map<String, String> properties = new HashMap<>();
+		for (String property : readList(in)) {
+			int index = property.indexOf('=');
+			properties.put(property.substring(0, index), property.substring(index + 1));
+		}
+		List<String> args = readList(in);
+
+		PrintStream previousOut = System.out;
+		PrintStream previousErr = System.err;
+		int status;
+		try (URLClassLoader loader = new URLClassLoader(toUrls(classPath.toArray(new String[0])), sdkLoader)) {
+			System.setOut(new PrintStream(new FrameOutputStream(FRAME_OUT, out), true));
+			System.setErr(new PrintStream(new FrameOutputStream(FRAME_ERR, out), true));
+			status = MainRunner.run(loader, mainClass, args.toArray(new String[0]), properties);
+		} catch (Exception e) {
+			e.printStackTrace();
+			status = 1;
+		} finally {
+			System.out.flush();
+			System.err.flush();
+			System.setOut(previousOut);
+			System.setErr(previousErr);
+		}
+		synchronized (out) {
+			out.writeByte(FRAME_EXIT);
+			out.writeInt(status);
+			out.flush();
+		}
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+	}
+
+	private boolean isHeapShort() {
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		long used = runtime.totalMemory() - runtime.freeMemory();
+		return used * 100L > runtime.maxMemory() * maxHeapUsage;
+	}
+
+	private boolean isPhysicalMemoryShort() {
+		OperatingSystemMXBean osMBean = ManagementFactory.getOperatingSystemMXBean();
+		if (osMBean instanceof com.sun.management.OperatingSystemMXBean) {
+			com.sun.management.OperatingSystemMXBean sunOsMBean = (com.sun.management.OperatingSystemMXBean) osMBean;
+			return sunOsMBean.getFreePhysicalMemorySize() * 100L
+				< sunOsMBean.getTotalPhysicalMemorySize() * MIN_FREE_PHYSICAL_PERCENT;
+		}
+		return false;
+	}
+
+	private void writePortFile(int port) throws IOException {
+		portFile.getParentFile().mkdirs();
+		File tmpFile = new File(portFile.getPath() + ".tmp");
+		Files.write(tmpFile.toPath(), (port + "\n" + cookie + "\n").getBytes(Charset.forName("UTF-8")));
+		Files.move(tmpFile.toPath(), portFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static List<String> readList(DataInputStream in) throws IOException {
+		int size = in.readInt();
+		List<String> result = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			result.add(in.readUTF());
+		}
+		return result;
+	}
+
+	private static URL[] toUrls(String[] paths) throws IOException {
+		List<URL> urls = new ArrayList<>(paths.length);
+		for (String path : paths) {
+			if (path.length() > 0) {
+				urls.add(new File(path).toURI().toURL());
+			}
+		}
+		return urls.toArray(new URL[0]);
+	}
+
+	/**
+	 * Sends the compiler output to the client, one frame per line.
+	 */
+	private static final class FrameOutputStream extends OutputStream {
+		private final byte type;
+		private final DataOutputStream out;
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+		private FrameOutputStream(byte type, DataOutputStream out) {
+			this.type = type;
+			this.out = out;
+		}
+
+		@Override
+		public synchronized void write(int b) throws IOException {
+			buffer.write(b);
+			if (b == '\n') {
+				flush();
+			}
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			buffer.write(b, off, len);
+			if (len > 0 && b[off + len - 1] == '\n') {
+				flush();
+			}
+		}
+
+		@Override
+		public synchronized void flush() throws IOException {
+			if (buffer.size() == 0) {
+				return;
+			}
+			byte[] bytes = buffer.toByteArray();
+			buffer.reset();
+			synchronized (out) {
+				out.writeByte(type);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+				out.flush();
+			}
+		}
+	}
+}
@@ -0,0 +1,342 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.daemon;
+
+import org.gradle.api.logging.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import fr.putnami.gwt.gradle.util.ResourceUtils;
+
+/**
+ * Permutation worker, compiles the permutations sent by the builds over a socket.
+ * <p>
+ * A build first asks the worker how many permutations it compiles at a time, then sends one
+ * permutation per connection: the module, the permutation index and the hash of the
+ * precompilation. The precompilation is only uploaded when the worker does not have it yet, and is
+ * only stored when its content matches the hash. While the permutation is queued or compiled, the
+ * worker sends a heartbeat every few seconds, so that the build detects a dead worker and sends the
+ * permutation to another one. The compiled permutation is sent back once done.
+ * </p>
+ */
+public final class PermutationWorker {
+
+	public static final byte OP_INFO = 1;
+	public static final byte OP_COMPILE = 2;
+
+	public static final byte REPLY_NEED_PRECOMPILATION = 1;
+	public static final byte REPLY_READY = 2;
+	public static final byte REPLY_REJECTED = 3;
+	public static final byte REPLY_HEARTBEAT = 4;
+	public static final byte REPLY_RESULT = 5;
+
+	public static final int HEARTBEAT_MILLIS = 3000;
+	public static final int READ_TIMEOUT_MILLIS = 60000;
+
+	private static final String PRECOMPILATION_FILE = "precompilation.ser";
+	private static final int KEPT_PRECOMPILATIONS = 5;
+
+	/**
+	 * Compiles a permutation of a module precompiled in the work dir.
+	 */
+	public interface Compiler {
+		/**
+		 * @return the exit status, 0 when the permutation file was written in the work dir
+		 */
+		int compile(File workDir, String moduleName, int permutation) throws Exception;
+	}
+
+	private final File workDir;
+	private final String gwtVersion;
+	private final byte[] token;
+	private final int threads;
+	private final Compiler compiler;
+	private final Logger logger;
+	private final Semaphore slots;
+	private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor();
+	private final Object precompilationsLock = new Object();
+
+	public PermutationWorker(File workDir, String gwtVersion, String token, int threads, Compiler compiler,
+		Logger logger) {
+		this.workDir = workDir;
+		this.gwtVersion = gwtVersion;
+		this.token = (token == null ? "" : token).getBytes(StandardCharsets.UTF_8);
+		this.threads = threads;
+		this.compiler = compiler;
+		this.logger = logger;
+		this.slots = new Semaphore(threads, true);
+	}
+
+	/**
+	 * Serves the builds until the thread is interrupted.
+	 */
+	public void serve(String bindAddress, int port) throws IOException {
+		try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getByName(bindAddress))) {
+			logger.lifecycle("GWT permutation worker listening on {}:{}, {} permutations at a time", bindAddress,
+				server.getLocalPort(), threads);
+			serve(server);
+		}
+	}
+
+	/**
+	 * Serves the builds connecting to the server socket until the thread is interrupted or the
+	 * socket is closed.
+	 */
+	void serve(ServerSocket server) throws IOException {
+		ExecutorService connections = Executors.newCachedThreadPool();
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				final Socket socket = server.accept();
+				connections.submit(new Runnable() {
+					@Override
+					public void run() {
+						try (Socket s = socket) {
+							// a stalled build must not hold a connection thread
+							s.setSoTimeout(READ_TIMEOUT_MILLIS);
+							handle(s);
+						} catch (IOException e) {
+							logger.warn("GWT permutation worker connection lost: {}", e.getMessage());
+						}
+					}
+				});
+			}
+		} finally {
+			connections.shutdownNow();
+			heartbeats.shutdownNow();
+		}
+	}
+
+	private void handle(Socket socket) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		byte op = in.readByte();
+		// constant time, the time to reject a token does not tell how much of it matched
+		if (!MessageDigest.isEqual(token, in.readUTF().getBytes(StandardCharsets.UTF_8))) {
+			reject(out, "invalid token");
+			return;
+		}
+		if (op == OP_INFO) {
+			out.writeByte(REPLY_READY);
+			out.writeInt(threads);
+			out.flush();
+			return;
+		}
+		if (op != OP_COMPILE) {
+			reject(out, "unknown operation " + op);
+			return;
+		}
+		String clientGwtVersion = in.readUTF();
+		String moduleName = in.readUTF();
+		int permutation = in.readInt();
+		String precompilationHash = in.readUTF();
+		if (!gwtVersion.equals(clientGwtVersion)) {
+			reject(out, "GWT " + gwtVersion + " expected, got " + clientGwtVersion);
+			return;
+		}
+		if (!precompilationHash.matches("[0-9a-f]+") || moduleName.startsWith(".")
+			|| moduleName.contains("/") || moduleName.contains("\\")) {
+			reject(out, "invalid request");
+			return;
+		}
+
+		File precompilation = new File(workDir, "precompilations/" + precompilationHash + "/" + PRECOMPILATION_FILE);
+		File jobDir = new File(workDir, "jobs/" + UUID.randomUUID());
+		File upload = null;
+		try {
+			File compilerDir = new File(jobDir, moduleName + "/compiler");
+			Files.createDirectories(compilerDir.toPath());
+			File jobPrecompilation = new File(compilerDir, PRECOMPILATION_FILE);
+			if (!linkPrecompilation(precompilation, jobPrecompilation, null)) {
+				out.writeByte(REPLY_NEED_PRECOMPILATION);
+				out.flush();
+				upload = new File(workDir, "uploads/" + UUID.randomUUID() + ".tmp");
+				if (!precompilationHash.equals(receive(in, upload))) {
+					reject(out, "the uploaded precompilation does not match its hash");
+					return;
+				}
+				linkPrecompilation(precompilation, jobPrecompilation, upload);
+			}
+			out.writeByte(REPLY_READY);
+			out.flush();
+			compile(out, jobDir, moduleName, permutation);
+		} finally {
+			if (upload != null) {
+				Files.deleteIfExists(upload.toPath());
+			}
+			ResourceUtils.deleteDirectory(jobDir);
+		}
+	}
+
+	/**
+	 * Links the precompilation into the job dir, the uploaded file is stored as the precompilation
+	 * first when given. The precompilations are checked, linked and trimmed under the same lock, a
+	 * precompilation is never trimmed between its check and its link.
+	 *
+	 * @return false when the precompilation is missing
+	 */
+	private boolean linkPrecompilation(File precompilation, File target, File upload) throws IOException {
+		synchronized (precompilationsLock) {
+			if (upload != null) {
+				Files.createDirectories(precompilation.getParentFile().toPath());
+				Files.move(upload.toPath(), precompilation.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			} else if (!precompilation.isFile()) {
+				return false;
+			}
+			link(precompilation, target);
+			precompilation.getParentFile().setLastModified(System.currentTimeMillis());
+			if (upload != null) {
+				trimPrecompilations(precompilation.getParentFile().getParentFile());
+			}
+			return true;
+		}
+	}
+
+	private void compile(final DataOutputStream out, File jobDir, String moduleName, int permutation)
+		throws IOException {
+		ScheduledFuture<?> heartbeat = heartbeats.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					synchronized (out) {
+						out.writeByte(REPLY_HEARTBEAT);
+						out.flush();
+					}
+				} catch (IOException e) {
+					// the build is gone, the compilation result will not be sent
+				}
+			}
+		}, HEARTBEAT_MILLIS, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+
+		int status;
+		slots.acquireUninterruptibly();
+		try {
+			logger.lifecycle("Compiling the permutation {} of {}", permutation, moduleName);
+			status = compiler.compile(jobDir, moduleName, permutation);
+		} catch (Exception e) {
+			logger.error("Failed to compile the permutation " + permutation + " of " + moduleName, e);
+			status = 1;
+		} finally {
+			slots.release();
+			heartbeat.cancel(false);
+		}
+
+		File result = new File(jobDir, moduleName + "/compiler/permutation-" + permutation + ".js");
+		synchronized (out) {
+			out.writeByte(REPLY_RESULT);
+			if (status == 0 && result.isFile()) {
+				out.writeInt(0);
+				out.writeLong(result.length());
+				Files.copy(result.toPath(), out);
+			} else {
+				out.writeInt(status == 0 ? 1 : status);
+			}
+			out.flush();
+		}
+	}
+
+	private static void reject(DataOutputStream out, String reason) throws IOException {
+		out.writeByte(REPLY_REJECTED);
+		out.writeUTF(reason);
+		out.flush();
+	}
+
+	/**
+	 * @return the sha256 of the received file, hashed while it is written
+	 */
+	private static String receive(DataInputStream in, File target) throws IOException {
+		Files.createDirectories(target.getParentFile().toPath());
+		long size = in.readLong();
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		try (OutputStream fileOut = new DigestOutputStream(Files.newOutputStream(target.toPath()), digest)) {
+			copy(in, fileOut, size);
+		}
+		StringBuilder hash = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hash.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hash.toString();
+	}
+
+	/**
+	 * Copies exactly size bytes of the input.
+	 */
+	public static void copy(InputStream in, OutputStream out, long size) throws IOException {
+		byte[] buffer = new byte[64 * 1024];
+		long remaining = size;
+		while (remaining > 0) {
+			int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+			if (read < 0) {
+				throw new IOException("Connection closed, " + remaining + " bytes missing");
+			}
+			out.write(buffer, 0, read);
+			remaining -= read;
+		}
+	}
+
+	private static void link(File source, File target) throws IOException {
+		try {
+			Files.createLink(target.toPath(), source.toPath());
+		} catch (IOException | UnsupportedOperationException e) {
+			Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static void trimPrecompilations(File precompilationsDir) {
+		File[] precompilations = precompilationsDir.listFiles();
+		if (precompilations == null || precompilations.length <= KEPT_PRECOMPILATIONS) {
+			return;
+		}
+		Arrays.sort(precompilations, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return Long.compare(f2.lastModified(), f1.lastModified());
+			}
+		});
+		for (int i = KEPT_PRECOMPILATIONS; i < precompilations.length; i++) {
+			ResourceUtils.deleteDirectory(precompilations[i]);
+		}
+	}
+}
@@ -0,0 +1,33 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.extension;
+
+/**
+ * Named sets of compiler settings, selected with compile { profile } or -Pputnami.profile.
+ */
+public enum CompileProfile {
+		/**
+		 * Draft compile without optimization in a single permutation, without report nor class metadata.
+		 */
+		FAST,
+		/**
+		 * Optimized compile in a single permutation, without report, failing on any error.
+		 */
+		CI,
+		/**
+		 * Optimized and obfuscated compile of all the permutations.
+		 */
+		PRODUCTION
+}
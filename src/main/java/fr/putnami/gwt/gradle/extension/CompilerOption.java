@@ -14,14 +14,18 @@
  */
 package fr.putnami.gwt.gradle.extension;
 
+import com.google.common.base.MoreObjects;
 import com.google.common.collect.Lists;
 
 import org.gradle.api.Project;
+import org.gradle.util.ConfigureUtil;
 
 import java.io.File;
 import java.util.Arrays;
 import java.util.List;
 
+import groovy.lang.Closure;
+
 /**
  * GWT Compiler options.
  */
@@ -107,9 +111,14 @@ public class CompilerOption extends JavaOption {
 	 */
 	private Integer localWorkers;
 	/**
-	 * The number of local workers to use when compiling permutations.
+	 * The memory (MB) reserved for each local worker, also the heap of the permutation worker JVMs unless
+	 * workerJvm sets one.
 	 */
 	private Integer localWorkersMem = 2048;
+	/**
+	 * Runs the local workers in their own JVM or as threads of the compiler JVM.
+	 */
+	private WorkerMode workerMode = WorkerMode.PROCESSES;
 	/**
 	 * Compiles faster by reusing data from the previous compile.
 	 */
@@ -141,6 +150,92 @@ public class CompilerOption extends JavaOption {
 	 */
 	private Boolean generateJsInteropExports;
 
+	/**
+	 * Compile each module in its own compiler, side by side, and merge their outputs.
+	 */
+	private Boolean parallelModules = false;
+	/**
+	 * Fork a JVM to compile, when false the compiler runs in the gradle daemon.
+	 */
+	private Boolean fork = true;
+	/**
+	 * Compile in a long-lived compiler daemon reused across builds.
+	 */
+	private Boolean daemon = false;
+	/**
+	 * Minutes of inactivity after which the compiler daemon stops.
+	 */
+	private Integer daemonIdleTimeout = 30;
+	/**
+	 * Heap usage after a compilation, in percent of the max heap, above which the compiler daemon
+	 * stops.
+	 */
+	private Integer daemonMaxHeapUsage = 80;
+	/**
+	 * Directory holding the compiler daemons state (defaults to the gradle user home).
+	 */
+	private File daemonDir;
+
+	/**
+	 * Run in a gradle worker process, gradle schedules and reuses the worker processes.
+	 */
+	private Boolean gradleWorker = false;
+
+	/**
+	 * Folder of the GWT persistent unit cache, kept out of the build dir to survive clean.
+	 */
+	private File unitCacheDir;
+	/**
+	 * Max size of the GWT persistent unit cache in MB, the least recently used units are evicted.
+	 */
+	private Integer unitCacheMaxSize = 1024;
+	/**
+	 * Named set of settings (fast, ci, production), filling the settings left unset.
+	 */
+	private CompileProfile profile;
+	/**
+	 * Collapse all the deferred binding properties, the modules are compiled in a single permutation.
+	 */
+	private Boolean collapseAll;
+	/**
+	 * Deferred binding properties to collapse, all their values are compiled in the same permutation.
+	 */
+	private final List<String> collapseProperties = Lists.newArrayList();
+	/**
+	 * Compile in three tasks, gwtPrecompile, gwtCompilePerms and gwtLink, each permutation is compiled
+	 * and cached on its own.
+	 */
+	private Boolean splitCompile = false;
+	/**
+	 * Permutation workers (host:port) compiling the permutations of the split compilation.
+	 */
+	private final List<String> remoteWorkers = Lists.newArrayList();
+	/**
+	 * Port of the permutation worker run by the gwtWorker task.
+	 */
+	private Integer workerPort = 9881;
+	/**
+	 * Address the permutation worker listens on, the loopback interface by default.
+	 */
+	private String workerBindAddress = "127.0.0.1";
+	/**
+	 * Number of permutations the permutation worker compiles at a time, the number of cores by default.
+	 */
+	private Integer workerThreads;
+	/**
+	 * Secret shared by the permutation workers and the builds.
+	 */
+	private String workerToken;
+	/**
+	 * Let the permutation worker listen on another address than the loopback interface without
+	 * workerToken.
+	 */
+	private Boolean workerAllowUnauthenticated = false;
+	/**
+	 * JVM options of the permutation workers forked by the GWT compiler.
+	 */
+	private final JavaOption workerJvm = new JavaOption();
+
 	/**
 	 * GWT extra args, can be used to experiment arguments.
 	 */
@@ -326,6 +421,18 @@ public class CompilerOption extends JavaOption {
 		this.localWorkersMem = Integer.valueOf(localWorkersMem);
 	}
 
+	public WorkerMode getWorkerMode() {
+		return workerMode;
+	}
+
+	public void setWorkerMode(WorkerMode workerMode) {
+		this.workerMode = workerMode;
+	}
+
+	public void setWorkerMode(String workerMode) {
+		this.workerMode = WorkerMode.valueOf(workerMode.toUpperCase());
+	}
+
 	public Boolean getIncremental() {
 		return incremental;
 	}
@@ -442,10 +549,265 @@ public class CompilerOption extends JavaOption {
 		this.generateJsInteropExports = Boolean.parseBoolean(generateJsInteropExports);
 	}
 
+	public Boolean getParallelModules() {
+		return parallelModules;
+	}
+
+	public void setParallelModules(Boolean parallelModules) {
+		this.parallelModules = parallelModules;
+	}
+
+	public void setParallelModules(String parallelModules) {
+		this.parallelModules = Boolean.parseBoolean(parallelModules);
+	}
+
+	public Boolean getFork() {
+		return fork;
+	}
+
+	public void setFork(Boolean fork) {
+		this.fork = fork;
+	}
+
+	public void setFork(String fork) {
+		this.fork = Boolean.parseBoolean(fork);
+	}
+
+	public Boolean getDaemon() {
+		return daemon;
+	}
+
+	public void setDaemon(Boolean daemon) {
+		this.daemon = daemon;
+	}
+
+	public void setDaemon(String daemon) {
+		this.daemon = Boolean.parseBoolean(daemon);
+	}
+
+	public Integer getDaemonIdleTimeout() {
+		return daemonIdleTimeout;
+	}
+
+	public void setDaemonIdleTimeout(Integer daemonIdleTimeout) {
+		this.daemonIdleTimeout = daemonIdleTimeout;
+	}
+
+	public void setDaemonIdleTimeout(String daemonIdleTimeout) {
+		this.daemonIdleTimeout = Integer.valueOf(daemonIdleTimeout);
+	}
+
+	public Integer getDaemonMaxHeapUsage() {
+		return daemonMaxHeapUsage;
+	}
+
+	public void setDaemonMaxHeapUsage(Integer daemonMaxHeapUsage) {
+		this.daemonMaxHeapUsage = daemonMaxHeapUsage;
+	}
+
+	public void setDaemonMaxHeapUsage(String daemonMaxHeapUsage) {
+		this.daemonMaxHeapUsage = Integer.valueOf(daemonMaxHeapUsage);
+	}
+
+	public File getDaemonDir() {
+		return daemonDir;
+	}
+
+	public void setDaemonDir(String daemonDir) {
+		this.daemonDir = new File(daemonDir);
+	}
+
+	public Boolean getGradleWorker() {
+		return gradleWorker;
+	}
+
+	public void setGradleWorker(Boolean gradleWorker) {
+		this.gradleWorker = gradleWorker;
+	}
+
+	public void setGradleWorker(String gradleWorker) {
+		this.gradleWorker = Boolean.parseBoolean(gradleWorker);
+	}
+
 	public List<String> getExtraArgs() {
 		return extraArgs;
 	}
 
+	public File getUnitCacheDir() {
+		return unitCacheDir;
+	}
+
+	public void setUnitCacheDir(String unitCacheDir) {
+		this.unitCacheDir = new File(unitCacheDir);
+	}
+
+	public Integer getUnitCacheMaxSize() {
+		return unitCacheMaxSize;
+	}
+
+	public void setUnitCacheMaxSize(Integer unitCacheMaxSize) {
+		this.unitCacheMaxSize = unitCacheMaxSize;
+	}
+
+	public void setUnitCacheMaxSize(String unitCacheMaxSize) {
+		this.unitCacheMaxSize = Integer.valueOf(unitCacheMaxSize);
+	}
+
+	public CompileProfile getProfile() {
+		return profile;
+	}
+
+	public void setProfile(CompileProfile profile) {
+		this.profile = profile;
+	}
+
+	public void setProfile(String profile) {
+		this.profile = CompileProfile.valueOf(profile.toUpperCase());
+	}
+
+	/**
+	 * Applies the settings of the profile, if any, to the settings left unset, the settings set in
+	 * the build take precedence.
+	 */
+	public void applyProfile() {
+		if (profile == null) {
+			return;
+		}
+		switch (profile) {
+			case FAST:
+				draftCompile = MoreObjects.firstNonNull(draftCompile, true);
+				optimize = MoreObjects.firstNonNull(optimize, 0);
+				collapseAll = MoreObjects.firstNonNull(collapseAll, true);
+				compileReport = MoreObjects.firstNonNull(compileReport, false);
+				classMetadata = MoreObjects.firstNonNull(classMetadata, false);
+				break;
+			case CI:
+				draftCompile = MoreObjects.firstNonNull(draftCompile, false);
+				optimize = MoreObjects.firstNonNull(optimize, 9);
+				collapseAll = MoreObjects.firstNonNull(collapseAll, true);
+				compileReport = MoreObjects.firstNonNull(compileReport, false);
+				failOnError = MoreObjects.firstNonNull(failOnError, true);
+				break;
+			case PRODUCTION:
+				draftCompile = MoreObjects.firstNonNull(draftCompile, false);
+				optimize = MoreObjects.firstNonNull(optimize, 9);
+				collapseAll = MoreObjects.firstNonNull(collapseAll, false);
+				style = MoreObjects.firstNonNull(style, CodeStyle.OBF);
+				break;
+			default:
+				break;
+		}
+	}
+
+	public Boolean getCollapseAll() {
+		return collapseAll;
+	}
+
+	public void setCollapseAll(Boolean collapseAll) {
+		this.collapseAll = collapseAll;
+	}
+
+	public void setCollapseAll(String collapseAll) {
+		this.collapseAll = Boolean.parseBoolean(collapseAll);
+	}
+
+	public List<String> getCollapseProperties() {
+		return collapseProperties;
+	}
+
+	public void setCollapseProperties(String... collapseProperties) {
+		this.collapseProperties.addAll(Arrays.asList(collapseProperties));
+	}
+
+	public void collapseProperties(String... collapseProperties) {
+		setCollapseProperties(collapseProperties);
+	}
+
+	public Boolean getSplitCompile() {
+		return splitCompile;
+	}
+
+	public void setSplitCompile(Boolean splitCompile) {
+		this.splitCompile = splitCompile;
+	}
+
+	public void setSplitCompile(String splitCompile) {
+		this.splitCompile = Boolean.parseBoolean(splitCompile);
+	}
+
+	public List<String> getRemoteWorkers() {
+		return remoteWorkers;
+	}
+
+	public void setRemoteWorkers(String... remoteWorkers) {
+		this.remoteWorkers.addAll(Arrays.asList(remoteWorkers));
+	}
+
+	public void remoteWorkers(String... remoteWorkers) {
+		setRemoteWorkers(remoteWorkers);
+	}
+
+	public Integer getWorkerPort() {
+		return workerPort;
+	}
+
+	public void setWorkerPort(Integer workerPort) {
+		this.workerPort = workerPort;
+	}
+
+	public void setWorkerPort(String workerPort) {
+		this.workerPort = Integer.valueOf(workerPort);
+	}
+
+	public String getWorkerBindAddress() {
+		return workerBindAddress;
+	}
+
+	public void setWorkerBindAddress(String workerBindAddress) {
+		this.workerBindAddress = workerBindAddress;
+	}
+
+	public Integer getWorkerThreads() {
+		return workerThreads;
+	}
+
+	public void setWorkerThreads(Integer workerThreads) {
+		this.workerThreads = workerThreads;
+	}
+
+	public void setWorkerThreads(String workerThreads) {
+		this.workerThreads = Integer.valueOf(workerThreads);
+	}
+
+	public String getWorkerToken() {
+		return workerToken;
+	}
+
+	public void setWorkerToken(String workerToken) {
+		this.workerToken = workerToken;
+	}
+
+	public Boolean getWorkerAllowUnauthenticated() {
+		return workerAllowUnauthenticated;
+	}
+
+	public void setWorkerAllowUnauthenticated(Boolean workerAllowUnauthenticated) {
+		this.workerAllowUnauthenticated = workerAllowUnauthenticated;
+	}
+
+	public void setWorkerAllowUnauthenticated(String workerAllowUnauthenticated) {
+		this.workerAllowUnauthenticated = Boolean.parseBoolean(workerAllowUnauthenticated);
+	}
+
+	public JavaOption getWorkerJvm() {
+		return workerJvm;
+	}
+
+	public CompilerOption workerJvm(Closure<JavaOption> c) {
+		ConfigureUtil.configure(c, workerJvm);
+		return this;
+	}
+
 	public void setExtraArgs(String... extraArgs) {
 		this.extraArgs.addAll(Arrays.asList(extraArgs));
 	}
@@ -460,6 +822,8 @@ public class CompilerOption extends JavaOption {
 		this.extra = new File(buildDir, "extra");
 		this.saveSourceOutput = new File(buildDir, "extra/source");
 		this.missingDepsFile = new File(buildDir, "extra/missingDepsFile");
+		this.daemonDir = new File(project.getGradle().getGradleUserHomeDir(), "putnami/daemon");
+		this.unitCacheDir = new File(project.getProjectDir(), ".gradle/putnami/unit-cache");
 	}
 
 }
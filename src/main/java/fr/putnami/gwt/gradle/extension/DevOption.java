@@ -93,6 +93,19 @@ public class DevOption extends JavaOption {
 	 */
 	private Boolean generateJsInteropExports;
 
+	/**
+	 * Run in a gradle worker process, gradle schedules and reuses the worker processes.
+	 */
+	private Boolean gradleWorker = false;
+	/**
+	 * How the dependencies are put in WEB-INF/lib of the dev war: hardlink, symlink or copy.
+	 */
+	private WarLinkMode warLinkMode = WarLinkMode.COPY;
+	/**
+	 * Keep the dev war in sync with the classes and resources while the dev mode runs.
+	 */
+	private Boolean liveSync = true;
+
 	/**
 	 * GWT extra args, can be used to experiment arguments.
 	 */
@@ -222,6 +235,42 @@ public class DevOption extends JavaOption {
 		this.generateJsInteropExports = generateJsInteropExports;
 	}
 
+	public Boolean getGradleWorker() {
+		return gradleWorker;
+	}
+
+	public void setGradleWorker(Boolean gradleWorker) {
+		this.gradleWorker = gradleWorker;
+	}
+
+	public void setGradleWorker(String gradleWorker) {
+		this.gradleWorker = Boolean.parseBoolean(gradleWorker);
+	}
+
+	public WarLinkMode getWarLinkMode() {
+		return warLinkMode;
+	}
+
+	public void setWarLinkMode(WarLinkMode warLinkMode) {
+		this.warLinkMode = warLinkMode;
+	}
+
+	public void setWarLinkMode(String warLinkMode) {
+		this.warLinkMode = WarLinkMode.valueOf(warLinkMode.toUpperCase());
+	}
+
+	public Boolean getLiveSync() {
+		return liveSync;
+	}
+
+	public void setLiveSync(Boolean liveSync) {
+		this.liveSync = liveSync;
+	}
+
+	public void setLiveSync(String liveSync) {
+		this.liveSync = Boolean.parseBoolean(liveSync);
+	}
+
 	public List<String> getExtraArgs() {
 		return extraArgs;
 	}
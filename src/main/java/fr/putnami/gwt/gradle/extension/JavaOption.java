@@ -32,6 +32,8 @@ public class JavaOption {
 	private boolean debugJava = false;
 	private int debugPort = 8000;
 	private boolean debugSuspend = false;
+	private LaunchMode launchMode = LaunchMode.DEFAULT;
+	private int verboseLogLines = 100;
 
 	public List<String> getJavaArgs() {
 		return javaArgs;
@@ -120,4 +122,28 @@ public class JavaOption {
 	public void setDebugSuspend(String debugSuspend) {
 		this.debugSuspend = Boolean.valueOf(debugSuspend);
 	}
+
+	public LaunchMode getLaunchMode() {
+		return launchMode;
+	}
+
+	public void setLaunchMode(LaunchMode launchMode) {
+		this.launchMode = launchMode;
+	}
+
+	public void setLaunchMode(String launchMode) {
+		this.launchMode = LaunchMode.valueOf(launchMode.toUpperCase());
+	}
+
+	public int getVerboseLogLines() {
+		return verboseLogLines;
+	}
+
+	public void setVerboseLogLines(int verboseLogLines) {
+		this.verboseLogLines = verboseLogLines;
+	}
+
+	public void setVerboseLogLines(String verboseLogLines) {
+		this.verboseLogLines = Integer.valueOf(verboseLogLines);
+	}
 }
@@ -0,0 +1,36 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.extension;
+
+/**
+ * How the java processes are launched.
+ */
+public enum LaunchMode {
+		/**
+		 * The classpath is passed as is on the command line.
+		 */
+		DEFAULT,
+		/**
+		 * The common prefixes of the classpath are factored in environment variables, expanded by a
+		 * shell launcher (sh -c or cmd /c). A classpath too long for the launcher is passed in a
+		 * pathing jar instead.
+		 */
+		COMPRESSED,
+		/**
+		 * The JVM args, classpath and program args are written in an argument file (java 9 or
+		 * higher), reused while unchanged.
+		 */
+		ARGFILE
+}
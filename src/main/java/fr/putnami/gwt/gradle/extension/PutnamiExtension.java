@@ -30,6 +30,11 @@ public class PutnamiExtension {
 	private boolean gwtServletLib = false;
 	private boolean gwtElementalLib = false;
 	private boolean googlePluginEclipse = false;
+	/**
+	 * Share the GWT persistent unit cache of the root project between the compilations, code servers
+	 * and tests of all the projects.
+	 */
+	private boolean sharedUnitCache = false;
 	private String jettyVersion = "9.2.7.v20150116";
 	/**
 	 * Specifies Java source level.
@@ -85,6 +90,14 @@ public class PutnamiExtension {
 		this.googlePluginEclipse = googlePluginEclipse;
 	}
 
+	public boolean isSharedUnitCache() {
+		return sharedUnitCache;
+	}
+
+	public void setSharedUnitCache(boolean sharedUnitCache) {
+		this.sharedUnitCache = sharedUnitCache;
+	}
+
 	public DevOption getDev() {
 		return dev;
 	}
@@ -0,0 +1,29 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.extension;
+
+/**
+ * How the GWT compiler runs its permutation workers.
+ */
+public enum WorkerMode {
+		/**
+		 * One JVM per worker, each one loading its own copy of the precompiled program.
+		 */
+		PROCESSES,
+		/**
+		 * Threads of the compiler JVM, sharing the precompiled program in a single heap.
+		 */
+		THREADS
+}
@@ -0,0 +1,100 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.helper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.putnami.gwt.gradle.util.FolderLock;
+
+/**
+ * Class loaders kept between builds, keyed by the fingerprint of their classpath (path, size and
+ * last modification of each entry) and by the GWT unit cache folder, which GWT reads once per class
+ * loader. They are isolated from the gradle classes and hold the lock of their unit cache folder.
+ */
+final class ClassLoaderCache {
+
+	private static final int MAX_LOADERS = 2;
+
+	private static final Map<String, CachedLoader> LOADERS = new LinkedHashMap<>(4, 0.75f, true);
+
+	private ClassLoaderCache() {
+	}
+
+	static synchronized ClassLoader get(List<String> classPath, String unitCacheDir) throws IOException {
+		String key = fingerprint(classPath) + unitCacheDir;
+		CachedLoader loader = LOADERS.get(key);
+		if (loader == null) {
+			Closeable unitCacheLock = unitCacheDir == null ? null : FolderLock.acquireShared(new File(unitCacheDir));
+			loader = new CachedLoader(
+				new URLClassLoader(toUrls(classPath), ClassLoader.getSystemClassLoader().getParent()), unitCacheLock);
+			LOADERS.put(key, loader);
+		}
+		Iterator<CachedLoader> iterator = LOADERS.values().iterator();
+		while (LOADERS.size() > MAX_LOADERS && iterator.hasNext()) {
+			CachedLoader eldest = iterator.next();
+			iterator.remove();
+			eldest.close();
+		}
+		return loader.loader;
+	}
+
+	private static String fingerprint(List<String> classPath) {
+		StringBuilder sb = new StringBuilder();
+		for (String path : classPath) {
+			File file = new File(path);
+			sb.append(path).append('|').append(file.length()).append('|').append(file.lastModified()).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static final class CachedLoader {
+		private final URLClassLoader loader;
+		private final Closeable unitCacheLock;
+
+		private CachedLoader(URLClassLoader loader, Closeable unitCacheLock) {
+			this.loader = loader;
+			this.unitCacheLock = unitCacheLock;
+		}
+
+		private void close() throws IOException {
+			try {
+				loader.close();
+			} finally {
+				if (unitCacheLock != null) {
+					unitCacheLock.close();
+				}
+			}
+		}
+	}
+
+	static URL[] toUrls(Iterable<String> paths) throws IOException {
+		List<URL> urls = new ArrayList<>();
+		for (String path : paths) {
+			if (!path.isEmpty()) {
+				urls.add(new File(path).toURI().toURL());
+			}
+		}
+		return urls.toArray(new URL[0]);
+	}
+}
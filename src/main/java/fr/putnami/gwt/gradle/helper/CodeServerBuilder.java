@@ -55,6 +55,9 @@ public class CodeServerBuilder extends JavaCommandBuilder {
 
 		setPathingJar(devOption.getPathingJar());
 		configureJavaArgs(devOption);
+		setArgFileDir(new File(project.getBuildDir(), "putnami/conf/args"));
+		UnitCache unitCache = UnitCache.of(project, devOption.getSourceLevel());
+		addJavaArgs("-D" + UnitCache.DIR_PROPERTY + "=" + unitCache.prepare().getAbsolutePath());
 
 		addClassPath(mainSourceSet.getOutput().getAsPath());
 		addClassPath(mainSourceSet.getAllJava().getSrcDirs());
@@ -78,6 +81,7 @@ public class CodeServerBuilder extends JavaCommandBuilder {
 		addArg("-sourceLevel", devOption.getSourceLevel());
 		if (!putnami.getGwtVersion().startsWith("2.6")) {
 			addArg("-logLevel", devOption.getLogLevel());
+			setGwtLogLevel(devOption.getLogLevel());
 		}
 		addArg("-XmethodNameDisplayMode", devOption.getMethodNameDisplayMode());
 		addArg("-XjsInteropMode", devOption.getJsInteropMode());
@@ -97,7 +101,7 @@ public class CodeServerBuilder extends JavaCommandBuilder {
 	}
 
 	public JavaAction buildJavaAction() {
-		return new JavaAction(this.toJava());
+		return newJavaAction();
 	}
 
 	private Collection<File> listProjectDepsSrcDirs(Project project) {
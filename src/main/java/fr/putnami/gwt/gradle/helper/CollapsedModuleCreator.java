@@ -0,0 +1,137 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.helper;
+
+import com.google.common.base.Strings;
+
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * Creates the wrapper modules collapsing the permutations of the compiled modules.
+ * <p>
+ * The wrapper of a module inherits it and collapses its properties, so that the compiler produces
+ * fewer permutations. The wrapper keeps the rename-to of the module, the compiler output stays in
+ * the same folder.
+ * </p>
+ */
+public class CollapsedModuleCreator {
+	public static final String MODULE_PACKAGE = "putnami.collapse";
+
+	private final File genDir;
+	private final boolean collapseAll;
+	private final List<String> collapseProperties;
+	private final List<String> classPath;
+
+	public CollapsedModuleCreator(File genDir, boolean collapseAll, List<String> collapseProperties,
+		List<String> classPath) {
+		this.genDir = genDir;
+		this.collapseAll = collapseAll;
+		this.collapseProperties = collapseProperties;
+		this.classPath = classPath;
+	}
+
+	/**
+	 * Writes the wrapper of the module, the file is left untouched when its content is unchanged.
+	 *
+	 * @return the name of the wrapper module
+	 */
+	public String create(String module) throws IOException {
+		String wrapperName = MODULE_PACKAGE + "." + module;
+
+		StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		xml.append("<module rename-to=\"").append(escape(getRenameTo(module))).append("\">\n");
+		xml.append("\t<inherits name=\"").append(escape(module)).append("\" />\n");
+		if (collapseAll) {
+			xml.append("\t<collapse-all-properties />\n");
+		}
+		for (String property : collapseProperties) {
+			xml.append("\t<collapse-property name=\"").append(escape(property)).append("\" values=\"*\" />\n");
+		}
+		xml.append("</module>\n");
+
+		File wrapperFile = new File(genDir, wrapperName.replace('.', '/') + ".gwt.xml");
+		byte[] content = xml.toString().getBytes(StandardCharsets.UTF_8);
+		if (!wrapperFile.isFile() || !Arrays.equals(content, Files.readAllBytes(wrapperFile.toPath()))) {
+			wrapperFile.getParentFile().mkdirs();
+			Files.write(wrapperFile.toPath(), content);
+		}
+		return wrapperName;
+	}
+
+	/**
+	 * The rename-to of the module descriptor found on the classpath, the module name otherwise.
+	 */
+	private String getRenameTo(String module) throws IOException {
+		String path = module.replace('.', '/') + ".gwt.xml";
+		for (String entry : classPath) {
+			File file = new File(entry);
+			if (file.isDirectory()) {
+				File descriptor = new File(file, path);
+				if (descriptor.isFile()) {
+					try (InputStream in = new FileInputStream(descriptor)) {
+						return readRenameTo(in, module);
+					}
+				}
+			} else if (file.isFile() && entry.endsWith(".jar")) {
+				try (ZipFile zip = new ZipFile(file)) {
+					ZipEntry descriptor = zip.getEntry(path);
+					if (descriptor != null) {
+						try (InputStream in = zip.getInputStream(descriptor)) {
+							return readRenameTo(in, module);
+						}
+					}
+				}
+			}
+		}
+		return module;
+	}
+
+	private static String readRenameTo(InputStream in, String module) throws IOException {
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setValidating(false);
+			// The GWT module DTD is remote, it is not needed to read the attribute
+			factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+			DocumentBuilder builder = factory.newDocumentBuilder();
+			Document document = builder.parse(new InputSource(in));
+			String renameTo = document.getDocumentElement().getAttribute("rename-to");
+			return Strings.isNullOrEmpty(renameTo) ? module : renameTo;
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException("Fail to read the module " + module, e);
+		}
+	}
+
+	private static String escape(String value) {
+		return value.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;");
+	}
+}
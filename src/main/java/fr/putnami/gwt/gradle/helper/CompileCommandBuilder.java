@@ -14,24 +14,131 @@
  */
 package fr.putnami.gwt.gradle.helper;
 
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.plugins.JavaPlugin;
+import org.gradle.workers.WorkerExecutor;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
 import fr.putnami.gwt.gradle.PwtLibPlugin;
+import fr.putnami.gwt.gradle.action.CompilerDaemonAction;
+import fr.putnami.gwt.gradle.action.InProcessJavaAction;
 import fr.putnami.gwt.gradle.action.JavaAction;
 import fr.putnami.gwt.gradle.extension.CompilerOption;
+import fr.putnami.gwt.gradle.extension.JavaOption;
+import fr.putnami.gwt.gradle.extension.WorkerMode;
 import fr.putnami.gwt.gradle.task.GwtCompileTask;
 
 public class CompileCommandBuilder extends JavaCommandBuilder {
 
+	/**
+	 * The GWT compiler entry points, a compilation runs in one step or is split into the precompile,
+	 * the compilation of the permutations and the link.
+	 */
+	public enum Step {
+		COMPILE("com.google.gwt.dev.Compiler", true, true, true),
+		PRECOMPILE("com.google.gwt.dev.Precompile", true, false, false),
+		COMPILE_PERMS("com.google.gwt.dev.CompilePerms", false, true, false),
+		LINK("com.google.gwt.dev.Link", false, false, true);
+
+		private final String mainClass;
+		private final boolean precompiling;
+		private final boolean compilingPerms;
+		private final boolean linking;
+
+		Step(String mainClass, boolean precompiling, boolean compilingPerms, boolean linking) {
+			this.mainClass = mainClass;
+			this.precompiling = precompiling;
+			this.compilingPerms = compilingPerms;
+			this.linking = linking;
+		}
+	}
+
+	private static final String PERMUTATION_WORKER_FACTORY = "gwt.jjs.permutationWorkerFactory";
+	private static final String THREADED_WORKER_FACTORY = "com.google.gwt.dev.ThreadedPermutationWorkerFactory";
+	private static final String MAX_THREADS = "gwt.jjs.maxThreads";
+	private static final String WORKER_JAVA_ARGS = "gwt.jjs.javaArgs";
+
+	private CompilerOption compilerOptions;
+	private String sdkClassPath;
+	private File unitDir;
+	private Integer localWorkers;
+	private boolean threadedWorkers;
+	private Step step = Step.COMPILE;
+	private File workDir;
+	private List<Integer> permutations;
+	private final List<String> moduleNames = Lists.newArrayList();
+
 	public CompileCommandBuilder() {
 		super();
-		setMainClass("com.google.gwt.dev.Compiler");
+		setMainClass(step.mainClass);
+	}
+
+	/**
+	 * The module name given to the compiler, the name of the wrapper module when properties are
+	 * collapsed.
+	 */
+	public static String getModuleName(CompilerOption compilerOptions, String module) {
+		if (Boolean.TRUE.equals(compilerOptions.getCollapseAll()) || !compilerOptions.getCollapseProperties().isEmpty()) {
+			return CollapsedModuleCreator.MODULE_PACKAGE + "." + module;
+		}
+		return module;
+	}
+
+	/**
+	 * Runs a single step of the compilation. Must be set before configure. The compile perms step
+	 * loads no module, it takes the module names given to the precompile step (see getModuleName).
+	 */
+	public void setStep(Step step) {
+		this.step = step;
+		setMainClass(step.mainClass);
+	}
+
+	/**
+	 * Overrides the work dir of the compiler options. Must be set before configure.
+	 */
+	public void setWorkDir(File workDir) {
+		this.workDir = workDir;
+	}
+
+	/**
+	 * The permutations to compile in the compile perms step, all when not set. Must be set before
+	 * configure.
+	 */
+	public void setPermutations(List<Integer> permutations) {
+		this.permutations = permutations;
+	}
+
+	/**
+	 * The module names given to the compiler, available once configured.
+	 */
+	public List<String> getModuleNames() {
+		return moduleNames;
+	}
+
+	/**
+	 * Writes the war, work, extra, deploy and gen outputs in the given directory, so that several
+	 * compilations can run side by side. Must be set before configure.
+	 */
+	public void setUnitDir(File unitDir) {
+		this.unitDir = unitDir;
+	}
+
+	/**
+	 * Overrides the local workers of the compiler options. Must be set before configure.
+	 */
+	public void setLocalWorkers(Integer localWorkers) {
+		this.localWorkers = localWorkers;
 	}
 
 	public void configure(Project project, CompilerOption compilerOptions, FileCollection sources, File war,
@@ -39,63 +146,191 @@ public class CompileCommandBuilder extends JavaCommandBuilder {
 		Configuration sdmConf = project.getConfigurations().getByName(PwtLibPlugin.CONF_GWT_SDM);
 		Configuration compileConf = project.getConfigurations().getByName(JavaPlugin.COMPILE_CLASSPATH_CONFIGURATION_NAME);
 		Configuration gwtSource = project.getConfigurations().getByName(GwtCompileTask.GWT_SOURCE_CONFIG);
-		
+
+		this.compilerOptions = compilerOptions;
+		this.sdkClassPath = sdmConf.getAsPath();
+		if (localWorkers == null) {
+			localWorkers = compilerOptions.getLocalWorkers();
+		}
+
 		setPathingJar(compilerOptions.getPathingJar());
-		configureJavaArgs(compilerOptions);
-		addJavaArgs("-Dgwt.persistentunitcachedir=" + project.getBuildDir() + "/putnami/work/cache");
+		if (step == Step.COMPILE_PERMS) {
+			// this JVM compiles the permutations itself
+			configureLaunch(compilerOptions);
+			for (String javaArg : getWorkerJavaArgs(compilerOptions)) {
+				addJavaArgs(javaArg);
+			}
+		} else {
+			configureJavaArgs(compilerOptions);
+		}
+		if (step == Step.COMPILE && compilerOptions.getWorkerMode() == WorkerMode.THREADS) {
+			// the workers share the compiler heap, sized for the most workers unless set. The heap does not follow the
+			// reservation, a different heap would start another compiler daemon, only gwt.jjs.maxThreads does.
+			useThreadedWorkers();
+			if (Strings.isNullOrEmpty(compilerOptions.getMaxHeapSize()) && compilerOptions.getLocalWorkersMem() != null) {
+				int maxWorkers = compilerOptions.getLocalWorkers() != null
+					? compilerOptions.getLocalWorkers() : Runtime.getRuntime().availableProcessors();
+				addJavaArgs("-Xmx" + maxWorkers * compilerOptions.getLocalWorkersMem() + "m");
+			}
+		} else if (step.compilingPerms) {
+			addJavaArgs("-D" + WORKER_JAVA_ARGS + "=" + Joiner.on(' ').join(getWorkerJavaArgs(compilerOptions)));
+		}
+		setArgFileDir(new File(project.getBuildDir(), "putnami/conf/args"));
+		UnitCache unitCache = UnitCache.of(project, compilerOptions.getSourceLevel());
+		addJavaArgs("-D" + UnitCache.DIR_PROPERTY + "=" + unitCache.prepare().getAbsolutePath());
 
 		for (File sourceDir : sources) {
 			addClassPath(sourceDir.getAbsolutePath());
 		}
 
 		addClassPath(compileConf.getAsPath());
-		addClassPath(sdmConf.getAsPath());
+		addClassPath(sdkClassPath);
 		addSeparateClassPath(gwtSource.getAsPath());
 
-		addArg("-war", war);
-		addArg("-extra", compilerOptions.getExtra());
-		addArg("-workDir", compilerOptions.getWorkDir());
-		addArg("-gen", compilerOptions.getGen());
-		addArg("-deploy", compilerOptions.getDeploy());
+		File extra = compilerOptions.getExtra();
+		File work = compilerOptions.getWorkDir();
+		File gen = compilerOptions.getGen();
+		File deploy = compilerOptions.getDeploy();
+		if (unitDir != null) {
+			war = new File(unitDir, "war");
+			extra = new File(unitDir, "extra");
+			work = new File(unitDir, "work");
+			gen = new File(unitDir, "gen");
+			deploy = new File(unitDir, "deploy");
+		}
+		if (workDir != null) {
+			work = workDir;
+		}
+		if (step.linking) {
+			addArg("-war", war);
+			addArg("-extra", extra);
+		}
+		addArg("-workDir", work);
+		if (step.precompiling) {
+			addArg("-gen", gen);
+		}
+		if (step.linking) {
+			addArg("-deploy", deploy);
+		}
 
 		addArg("-logLevel", compilerOptions.getLogLevel());
-		addArg("-localWorkers", compilerOptions.getLocalWorkers());
-		addArgIf(compilerOptions.getStrict(), "-strict");
-		addArgIf(compilerOptions.getFailOnError(), "-failOnError", "-nofailOnError");
-		addArg("-sourceLevel", compilerOptions.getSourceLevel());
-		addArgIf(compilerOptions.getDraftCompile(), "-draftCompile", "-nodraftCompile");
-		addArg("-optimize", compilerOptions.getOptimize());
-		addArg("-style", compilerOptions.getStyle());
-		addArgIf(compilerOptions.getCompileReport(), "-compileReport", "-nocompileReport");
-		addArgIf(compilerOptions.getIncremental(), "-incremental");
-		addArgIf(compilerOptions.getCheckAssertions(), "-checkAssertions", "-nocheckAssertions");
-		addArgIf(compilerOptions.getCheckCasts(), "-XcheckCasts", "-XnocheckCasts");
-		addArgIf(compilerOptions.getEnforceStrictResources(), "-XenforceStrictResources",
-			"-XnoenforceStrictResources");
-		addArgIf(compilerOptions.getClassMetadata(), "-XclassMetadata", "-XnoclassMetadata");
-
-		addArgIf(compilerOptions.getOverlappingSourceWarnings(), "-overlappingSourceWarnings",
-			"-nooverlappingSourceWarnings");
-		addArgIf(compilerOptions.getSaveSource(), "-saveSource", "-nosaveSource");
-		addArg("-XmethodNameDisplayMode", compilerOptions.getMethodNameDisplayMode());
-
-		addArg("-XjsInteropMode", compilerOptions.getJsInteropMode());
-		addArgIf(compilerOptions.getGenerateJsInteropExports(), "-generateJsInteropExports");
-
-		if (compilerOptions.getExtraArgs() != null) {
-			for (String arg : compilerOptions.getExtraArgs()) {
-				if (arg != null && arg.length() > 0) {
-					addArg(arg);
+		setGwtLogLevel(compilerOptions.getLogLevel());
+		if (step.compilingPerms) {
+			addArg("-localWorkers", localWorkers);
+		}
+		if (step == Step.COMPILE_PERMS && permutations != null) {
+			addArg("-perms", Joiner.on(',').join(permutations));
+		}
+		if (step.precompiling) {
+			addArgIf(compilerOptions.getStrict(), "-strict");
+			addArgIf(compilerOptions.getFailOnError(), "-failOnError", "-nofailOnError");
+			addArg("-sourceLevel", compilerOptions.getSourceLevel());
+			addArgIf(compilerOptions.getDraftCompile(), "-draftCompile", "-nodraftCompile");
+			addArg("-optimize", compilerOptions.getOptimize());
+			addArg("-style", compilerOptions.getStyle());
+			addArgIf(compilerOptions.getCompileReport(), "-compileReport", "-nocompileReport");
+			if (step == Step.COMPILE) {
+				addArgIf(compilerOptions.getIncremental(), "-incremental");
+			}
+			addArgIf(compilerOptions.getCheckAssertions(), "-checkAssertions", "-nocheckAssertions");
+			addArgIf(compilerOptions.getCheckCasts(), "-XcheckCasts", "-XnocheckCasts");
+			addArgIf(compilerOptions.getEnforceStrictResources(), "-XenforceStrictResources",
+				"-XnoenforceStrictResources");
+			addArgIf(compilerOptions.getClassMetadata(), "-XclassMetadata", "-XnoclassMetadata");
+
+			if (step == Step.COMPILE) {
+				addArgIf(compilerOptions.getOverlappingSourceWarnings(), "-overlappingSourceWarnings",
+					"-nooverlappingSourceWarnings");
+				addArgIf(compilerOptions.getSaveSource(), "-saveSource", "-nosaveSource");
+			}
+			addArg("-XmethodNameDisplayMode", compilerOptions.getMethodNameDisplayMode());
+
+			addArg("-XjsInteropMode", compilerOptions.getJsInteropMode());
+			addArgIf(compilerOptions.getGenerateJsInteropExports(), "-generateJsInteropExports");
+
+			if (compilerOptions.getExtraArgs() != null) {
+				for (String arg : compilerOptions.getExtraArgs()) {
+					if (arg != null && arg.length() > 0) {
+						addArg(arg);
+					}
+				}
+			}
+		}
+
+		if (step != Step.COMPILE_PERMS
+			&& (Boolean.TRUE.equals(compilerOptions.getCollapseAll()) || !compilerOptions.getCollapseProperties().isEmpty())) {
+			File moduleGenDir = new File(project.getBuildDir(), "putnami/gen");
+			moduleGenDir.mkdirs();
+			addClassPath(moduleGenDir.getAbsolutePath());
+			CollapsedModuleCreator moduleCreator = new CollapsedModuleCreator(moduleGenDir,
+				Boolean.TRUE.equals(compilerOptions.getCollapseAll()), compilerOptions.getCollapseProperties(),
+				getClassPath());
+			try {
+				for (String module : modules) {
+					moduleNames.add(moduleCreator.create(module));
 				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
 			}
+		} else {
+			moduleNames.addAll(modules);
+		}
+		for (String moduleName : moduleNames) {
+			addArg(moduleName);
 		}
+	}
 
-		for (String module : modules) {
-			addArg(module);
+	/**
+	 * The JVM arguments of the permutation workers, their heap defaults to the local workers memory.
+	 * GWT splits them on spaces.
+	 */
+	public static List<String> getWorkerJavaArgs(CompilerOption compilerOptions) {
+		JavaOption workerJvm = compilerOptions.getWorkerJvm();
+		List<String> javaArgs = Lists.newArrayList();
+		if (Strings.isNullOrEmpty(workerJvm.getMaxHeapSize()) && compilerOptions.getLocalWorkersMem() != null) {
+			javaArgs.add("-Xmx" + compilerOptions.getLocalWorkersMem() + "m");
 		}
+		javaArgs.addAll(getJavaArgs(workerJvm));
+		return javaArgs;
 	}
 
 	public JavaAction buildJavaAction() {
-		return new JavaAction(this.toJava());
+		if (compilerOptions == null) {
+			return newJavaAction();
+		}
+		if (Boolean.TRUE.equals(compilerOptions.getDaemon())) {
+			useThreadedWorkers();
+			return new CompilerDaemonAction(this.toJava(), getClassPath(), sdkClassPath,
+				compilerOptions.getDaemonDir(), compilerOptions.getDaemonIdleTimeout(),
+				compilerOptions.getDaemonMaxHeapUsage());
+		}
+		if (Boolean.FALSE.equals(compilerOptions.getFork())) {
+			useThreadedWorkers();
+			JavaExecutor java = this.toJava();
+			java.setClassPath(getClassPath().toArray(new String[0]));
+			return new InProcessJavaAction(java, Arrays.asList(sdkClassPath.split(File.pathSeparator)));
+		}
+		return newJavaAction();
+	}
+
+	@Override
+	public void submit(WorkerExecutor workerExecutor, String displayName, File outputLog) {
+		useThreadedWorkers();
+		super.submit(workerExecutor, displayName, outputLog);
+	}
+
+	/**
+	 * The SDK is not on the JVM classpath in a daemon, in process or in a gradle worker, external permutation workers
+	 * would not start. Permutations are compiled in threads instead.
+	 */
+	private void useThreadedWorkers() {
+		if (threadedWorkers) {
+			return;
+		}
+		threadedWorkers = true;
+		addJavaArgs("-D" + PERMUTATION_WORKER_FACTORY + "=" + THREADED_WORKER_FACTORY);
+		if (localWorkers != null) {
+			addJavaArgs("-D" + MAX_THREADS + "=" + localWorkers);
+		}
 	}
 }
@@ -0,0 +1,285 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.helper;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import fr.putnami.gwt.gradle.action.JavaAction.LineListener;
+
+/**
+ * Collects the phase timings of a GWT compilation from the compiler output.
+ * <p>
+ * The phases are timed from the moment their log lines are read: the JVM start up until the module
+ * is announced, the module load until the rebind results are computed, the precompilation until the
+ * permutations are compiled, then the permutations and the link. The compile and link durations
+ * reported by the compiler are kept as well.
+ * </p>
+ * <p>
+ * GWT logs the start of each permutation, not its end. When the permutations are compiled one at a
+ * time, the duration of a permutation runs until the next one starts. With several local workers
+ * the permutations overlap, only their start and the duration of the whole phase are reported.
+ * When each permutation is compiled by a compiler of its own, as by the split compilation, the
+ * compilation times each compiler with {@link #permutationStarted} and {@link #permutationCompiled}
+ * instead, whatever the number of compilers running at a time.
+ * </p>
+ */
+public class CompileMetrics implements LineListener {
+
+	private static final Pattern COMPILING_MODULE = Pattern.compile("Compiling module (\\S+)");
+	private static final Pattern REBIND = Pattern.compile("Computing all possible rebind results");
+	private static final Pattern PERMUTATIONS = Pattern.compile("Compiling (\\d+) permutations?\\s*$");
+	private static final Pattern PERMUTATION = Pattern.compile("Compiling permutation (\\d+)");
+	private static final Pattern PERMUTATIONS_DONE = Pattern.compile("Compile of permutations succeeded");
+	private static final Pattern COMPILATION_SUCCEEDED = Pattern.compile("Compilation succeeded -- ([0-9.]+)\\s*s");
+	private static final Pattern LINKING = Pattern.compile("Linking into ");
+	private static final Pattern LINKING_SUCCEEDED = Pattern.compile("Linking succeeded -- ([0-9.]+)\\s*s");
+
+	private final long start = System.nanoTime();
+	private final long startMillis = System.currentTimeMillis();
+	private final boolean serialPermutations;
+	private final List<ModuleMetrics> modules = Lists.newArrayList();
+	private ModuleMetrics current;
+
+	/**
+	 * @param localWorkers the number of permutations compiled at a time
+	 */
+	public CompileMetrics(int localWorkers) {
+		this.serialPermutations = localWorkers <= 1;
+	}
+
+	@Override
+	public synchronized void onLine(String line) {
+		onLine(line, elapsed());
+	}
+
+	/**
+	 * Reads the output log of a gradle worker, each line is prefixed by its time in milliseconds and
+	 * a tab.
+	 */
+	public synchronized void readOutputLog(File log) throws IOException {
+		for (String entry : Files.readAllLines(log.toPath(), StandardCharsets.UTF_8)) {
+			int index = entry.indexOf('\t');
+			if (index > 0) {
+				onLine(entry.substring(index + 1), Long.parseLong(entry.substring(0, index)) - startMillis);
+			}
+		}
+	}
+
+	/**
+	 * Records the start of a permutation compiled by a compiler of its own.
+	 */
+	public synchronized void permutationStarted(String moduleName, int permutation) {
+		ModuleMetrics module = getModule(moduleName);
+		module.permutationStarts.put(permutation, elapsed());
+		module.permutationCount = module.permutationStarts.size();
+	}
+
+	/**
+	 * Records the end of a permutation started with {@link #permutationStarted}.
+	 */
+	public synchronized void permutationCompiled(String moduleName, int permutation) {
+		ModuleMetrics module = getModule(moduleName);
+		Long started = module.permutationStarts.get(permutation);
+		if (started != null) {
+			module.permutationDurations.put(permutation, elapsed() - started);
+		}
+	}
+
+	private ModuleMetrics getModule(String moduleName) {
+		for (ModuleMetrics module : modules) {
+			if (module.name.equals(moduleName)) {
+				return module;
+			}
+		}
+		ModuleMetrics module = new ModuleMetrics(moduleName, elapsed());
+		modules.add(module);
+		return module;
+	}
+
+	private void onLine(String line, long time) {
+		Matcher matcher = COMPILING_MODULE.matcher(line);
+		if (matcher.find()) {
+			current = new ModuleMetrics(matcher.group(1), time);
+			modules.add(current);
+			return;
+		}
+		if (current == null) {
+			return;
+		}
+		if (REBIND.matcher(line).find()) {
+			if (current.rebindStart < 0) {
+				current.rebindStart = time;
+			}
+		} else if ((matcher = PERMUTATIONS.matcher(line)).find()) {
+			current.permutationCount = Integer.parseInt(matcher.group(1));
+			current.permutationsStart = time;
+		} else if ((matcher = PERMUTATION.matcher(line)).find()) {
+			current.endPermutation(time);
+			current.permutationStarts.put(Integer.valueOf(matcher.group(1)), time);
+			if (serialPermutations) {
+				current.lastPermutation = Integer.valueOf(matcher.group(1));
+			}
+		} else if (PERMUTATIONS_DONE.matcher(line).find()) {
+			current.endPermutation(time);
+			current.permutationsEnd = time;
+		} else if ((matcher = COMPILATION_SUCCEEDED.matcher(line)).find()) {
+			current.endPermutation(time);
+			if (current.permutationsEnd < 0) {
+				current.permutationsEnd = time;
+			}
+			current.reportedCompile = toMillis(matcher.group(1));
+		} else if (LINKING.matcher(line).find()) {
+			current.linkStart = time;
+		} else if ((matcher = LINKING_SUCCEEDED.matcher(line)).find()) {
+			current.linkEnd = time;
+			current.reportedLink = toMillis(matcher.group(1));
+		}
+	}
+
+	private long elapsed() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+
+	private static long toMillis(String seconds) {
+		return Math.round(Double.parseDouble(seconds) * 1000);
+	}
+
+	/**
+	 * Writes the metrics of the compilations in compile-metrics.json and compile-metrics.csv.
+	 */
+	public static void writeReports(File reportDir, List<CompileMetrics> compilations) throws IOException {
+		reportDir.mkdirs();
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ROOT);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		String timestamp = format.format(new Date());
+
+		List<String> jsonModules = Lists.newArrayList();
+		StringBuilder csv = new StringBuilder("timestamp,module,metric,permutation,value\n");
+		for (CompileMetrics compilation : compilations) {
+			long total = compilation.elapsed();
+			synchronized (compilation) {
+				for (ModuleMetrics module : compilation.modules) {
+					Map<String, Long> values = module.values(total);
+					List<String> jsonValues = Lists.newArrayList();
+					jsonValues.add("\"module\": \"" + module.name + "\"");
+					jsonValues.add("\"permutationCount\": " + module.permutationCount);
+					csv.append(timestamp).append(',').append(module.name).append(",permutationCount,,")
+						.append(module.permutationCount).append('\n');
+					for (Map.Entry<String, Long> value : values.entrySet()) {
+						jsonValues.add("\"" + value.getKey() + "\": " + value.getValue());
+						csv.append(timestamp).append(',').append(module.name).append(',').append(value.getKey())
+							.append(",,").append(value.getValue()).append('\n');
+					}
+					List<String> jsonPermutations = Lists.newArrayList();
+					for (Map.Entry<Integer, Long> permutation : module.permutationStarts.entrySet()) {
+						Long duration = module.permutationDurations.get(permutation.getKey());
+						jsonPermutations.add("{\"id\": " + permutation.getKey() + ", \"startMs\": " + permutation.getValue()
+							+ (duration == null ? "" : ", \"durationMs\": " + duration) + "}");
+						csv.append(timestamp).append(',').append(module.name).append(",permutationStartMs,")
+							.append(permutation.getKey()).append(',').append(permutation.getValue()).append('\n');
+						if (duration != null) {
+							csv.append(timestamp).append(',').append(module.name).append(",permutationMs,")
+								.append(permutation.getKey()).append(',').append(duration).append('\n');
+						}
+					}
+					jsonValues.add("\"permutations\": [" + Joiner.on(", ").join(jsonPermutations) + "]");
+					jsonModules.add("    {\n      " + Joiner.on(",\n      ").join(jsonValues) + "\n    }");
+				}
+			}
+		}
+		String json = "{\n  \"timestamp\": \"" + timestamp + "\",\n  \"modules\": [\n"
+			+ Joiner.on(",\n").join(jsonModules) + "\n  ]\n}\n";
+
+		write(new File(reportDir, "compile-metrics.json"), json);
+		write(new File(reportDir, "compile-metrics.csv"), csv.toString());
+	}
+
+	private static void write(File file, String content) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+			writer.write(content);
+		}
+	}
+
+	private static final class ModuleMetrics {
+		private final String name;
+		private final long moduleStart;
+		private long rebindStart = -1;
+		private long permutationsStart = -1;
+		private long permutationsEnd = -1;
+		private long linkStart = -1;
+		private long linkEnd = -1;
+		private long reportedCompile = -1;
+		private long reportedLink = -1;
+		private int permutationCount;
+		private Integer lastPermutation;
+		private final Map<Integer, Long> permutationStarts = Maps.newTreeMap();
+		private final Map<Integer, Long> permutationDurations = Maps.newTreeMap();
+
+		private ModuleMetrics(String name, long moduleStart) {
+			this.name = name;
+			this.moduleStart = moduleStart;
+		}
+
+		private void endPermutation(long time) {
+			if (lastPermutation != null) {
+				permutationDurations.put(lastPermutation, time - permutationStarts.get(lastPermutation));
+				lastPermutation = null;
+			}
+		}
+
+		private Map<String, Long> values(long total) {
+			Map<String, Long> values = Maps.newLinkedHashMap();
+			values.put("startMs", moduleStart);
+			long precompileStart = rebindStart < 0 ? moduleStart : rebindStart;
+			if (rebindStart >= 0) {
+				values.put("moduleLoadMs", rebindStart - moduleStart);
+			}
+			if (permutationsStart >= 0) {
+				values.put("precompileMs", permutationsStart - precompileStart);
+			}
+			if (permutationsStart >= 0 && permutationsEnd >= 0) {
+				values.put("compilePermutationsMs", permutationsEnd - permutationsStart);
+			}
+			if (reportedCompile >= 0) {
+				values.put("reportedCompileMs", reportedCompile);
+			}
+			if (linkStart >= 0 && linkEnd >= 0) {
+				values.put("linkMs", linkEnd - linkStart);
+			}
+			if (reportedLink >= 0) {
+				values.put("reportedLinkMs", reportedLink);
+			}
+			values.put("totalMs", (linkEnd >= 0 ? linkEnd : total) - moduleStart);
+			return values;
+		}
+	}
+}
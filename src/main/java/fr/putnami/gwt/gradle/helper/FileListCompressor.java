@@ -74,10 +74,10 @@ public class FileListCompressor {
 		
 		List<String> replacedFiles = new ArrayList<>(fileList.size());
 		for (String file : fileList) {
-			String newFile = file;
+			String newFile = escape(file);
 			for (Entry<String, String> entry : vars.entrySet()) {
 				if (file.startsWith(entry.getKey())) {
-					newFile = varReference(entry.getValue()) + file.substring(entry.getKey().length());
+					newFile = varReference(entry.getValue()) + escape(file.substring(entry.getKey().length()));
 					break;
 				}
 			}
@@ -87,6 +87,28 @@ public class FileListCompressor {
 		return Joiner.on(pathSeparator).join(replacedFiles);
 	}
 	
+	/**
+	 * Escapes the literal parts of the list for a double quoted sh string, cmd has no reliable
+	 * escaping and the parts are kept as is.
+	 */
+	private String escape(String part) {
+		if (isWindows) {
+			return part;
+		}
+		StringBuilder sb = new StringBuilder(part.length());
+		for (char c : part.toCharArray()) {
+			if (c == '"' || c == '$' || c == '`' || c == '\\') {
+				sb.append('\\');
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	public boolean isWindows() {
+		return isWindows;
+	}
+
 	private String varReference(String var) {
 		return isWindows ? ("%" + var + "%") : ("${" + var + "}");
 	}
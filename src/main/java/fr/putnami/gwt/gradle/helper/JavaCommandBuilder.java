@@ -18,49 +18,39 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 
+import org.gradle.api.Action;
+import org.gradle.workers.IsolationMode;
+import org.gradle.workers.WorkerConfiguration;
+import org.gradle.workers.WorkerExecutor;
+
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 
+import fr.putnami.gwt.gradle.action.JavaAction;
+import fr.putnami.gwt.gradle.action.JavaWorkerAction;
 import fr.putnami.gwt.gradle.extension.JavaOption;
+import fr.putnami.gwt.gradle.extension.LaunchMode;
+import fr.putnami.gwt.gradle.extension.LogLevel;
 
 public abstract class JavaCommandBuilder {
 	
-	private static final PathAccumulator NO_PATHING_JAR = new PathAccumulator() {
-		private final List<String> paths = new ArrayList<>();
-		
-		@Override
-		public String get() {
-			return Joiner.on(File.pathSeparator).join(paths);
-		}
-
-		@Override
-		public String[] getArray() {
-			return paths.toArray(new String[0]);
-		}
-
-		@Override
-		public void add(String classPath) {
-			paths.add(classPath);
-		}
-		
-		@Override
-		public void makeJar() throws IOException {
-			// noop
-		}
-	};
-
 	private final List<String> javaArgs = Lists.newArrayList();
 	private String mainClass;
 	private final List<String> args = Lists.newArrayList();
 	private final List<String> separateClassPath = new ArrayList<>();
 
 	private PathAccumulator pathAccumulator;
+	private LaunchMode launchMode = LaunchMode.DEFAULT;
+	private File argFileDir;
+	private int verboseLogLines;
+	private boolean verboseOutput;
 	
 	public JavaCommandBuilder() {
-		this.pathAccumulator = NO_PATHING_JAR;
+		this.pathAccumulator = new ClassPathAccumulator();
 		javaArgs.add("-Dfile.encoding=" + Charset.defaultCharset().name());
 	}
 
@@ -74,12 +64,19 @@ public abstract class JavaCommandBuilder {
 
 	public void setPathingJar(String pathingJar) {
 		if (pathingJar == null) {
-			this.pathAccumulator = NO_PATHING_JAR;
+			this.pathAccumulator = new ClassPathAccumulator();
 		} else {
 			this.pathAccumulator = new PathingJarCreator(new File(pathingJar));
 		}
 	}
 
+	/**
+	 * Folder of the argument files, used by the {@link LaunchMode#ARGFILE} launch mode.
+	 */
+	public void setArgFileDir(File argFileDir) {
+		this.argFileDir = argFileDir;
+	}
+
 	public JavaCommandBuilder addSeparateClassPath(String classPath) {
 		this.separateClassPath.add(classPath);
 		return this;
@@ -145,6 +142,28 @@ public abstract class JavaCommandBuilder {
 		}
 	}
 	
+	/**
+	 * Classpath entries, one path per entry, without going through the pathing jar.
+	 */
+	public List<String> getClassPath() {
+		List<String> result = new ArrayList<>();
+		for (String path : separateClassPath) {
+			addClassPathEntries(result, path);
+		}
+		for (String path : pathAccumulator.getArray()) {
+			addClassPathEntries(result, path);
+		}
+		return result;
+	}
+
+	private static void addClassPathEntries(List<String> result, String path) {
+		for (String entry : path.split(File.pathSeparator)) {
+			if (!entry.isEmpty()) {
+				result.add(entry);
+			}
+		}
+	}
+
 	public JavaExecutor toJava() {
 		try {
 			pathAccumulator.makeJar();
@@ -155,24 +174,103 @@ public abstract class JavaCommandBuilder {
 		List<String> fullClassPath = new ArrayList<>();
 		fullClassPath.addAll(separateClassPath);
 		fullClassPath.add(pathAccumulator.get());
-		return new JavaExecutor(null, javaArgs, fullClassPath.toArray(new String[0]), mainClass, args);
+		JavaExecutor java = new JavaExecutor(null, javaArgs, fullClassPath.toArray(new String[0]), mainClass, args);
+		java.setLaunchMode(launchMode);
+		java.setArgFileDir(argFileDir);
+		return java;
+	}
+
+	/**
+	 * Builds the action running the java command in a new process.
+	 */
+	protected JavaAction newJavaAction() {
+		JavaAction action = new JavaAction(toJava());
+		action.setVerboseLogLines(verboseLogLines);
+		action.setVerboseOutput(verboseOutput);
+		return action;
+	}
+
+	/**
+	 * Submits the java command to a gradle worker process. Gradle reuses the worker processes having
+	 * the same JVM args, the system properties are set on each submission.
+	 */
+	public void submit(WorkerExecutor workerExecutor, String displayName) {
+		submit(workerExecutor, displayName, null);
+	}
+
+	/**
+	 * Same as {@link #submit(WorkerExecutor, String)}, the standard output of the run is also written
+	 * in the output log with the time of each line, if any.
+	 */
+	public void submit(WorkerExecutor workerExecutor, final String displayName, File outputLog) {
+		final String outputLogPath = outputLog == null ? "" : outputLog.getAbsolutePath();
+		final List<File> workerClassPath = new ArrayList<>();
+		for (String path : getClassPath()) {
+			workerClassPath.add(new File(path));
+		}
+		final List<String> workerJvmArgs = new ArrayList<>();
+		for (String javaArg : javaArgs) {
+			if (!JavaExecutor.isSystemProperty(javaArg) || JavaExecutor.isJvmWideProperty(javaArg)) {
+				workerJvmArgs.add(javaArg);
+			}
+		}
+		final JavaExecutor java = new JavaExecutor(null, javaArgs, new String[0], mainClass, args);
+		workerExecutor.submit(JavaWorkerAction.class, new Action<WorkerConfiguration>() {
+			@Override
+			public void execute(WorkerConfiguration config) {
+				config.setDisplayName(displayName);
+				config.setIsolationMode(IsolationMode.PROCESS);
+				config.setClasspath(workerClassPath);
+				config.getForkOptions().setJvmArgs(workerJvmArgs);
+				config.setParams(java.getEntryPoint(), new ArrayList<>(java.getArgs()),
+					new LinkedHashMap<>(java.getSystemProperties()), outputLogPath);
+			}
+		});
+	}
+
+	/**
+	 * The GWT log level of the process, its output is verbose above INFO.
+	 */
+	protected void setGwtLogLevel(LogLevel logLevel) {
+		verboseOutput = logLevel != null && logLevel.compareTo(LogLevel.INFO) > 0;
 	}
 
 	public void configureJavaArgs(JavaOption javaOptions) {
+		configureLaunch(javaOptions);
+		for (String javaArg : getJavaArgs(javaOptions)) {
+			addJavaArgs(javaArg);
+		}
+	}
+
+	/**
+	 * Applies the launch settings of the options, without their JVM arguments.
+	 */
+	protected void configureLaunch(JavaOption javaOptions) {
+		verboseLogLines = javaOptions.getVerboseLogLines();
+		if (javaOptions.getLaunchMode() != null) {
+			launchMode = javaOptions.getLaunchMode();
+		}
+	}
+
+	/**
+	 * The JVM arguments of the options.
+	 */
+	public static List<String> getJavaArgs(JavaOption javaOptions) {
+		List<String> javaArgs = new ArrayList<>();
 		if (!Strings.isNullOrEmpty(javaOptions.getMinHeapSize())) {
-			addJavaArgs("-Xms" + javaOptions.getMinHeapSize());
+			javaArgs.add("-Xms" + javaOptions.getMinHeapSize());
 		}
 		if (!Strings.isNullOrEmpty(javaOptions.getMaxHeapSize())) {
-			addJavaArgs("-Xmx" + javaOptions.getMaxHeapSize());
+			javaArgs.add("-Xmx" + javaOptions.getMaxHeapSize());
 		}
 		if (!Strings.isNullOrEmpty(javaOptions.getMaxPermSize())) {
-			addJavaArgs("-XX:MaxPermSize=" + javaOptions.getMaxPermSize());
+			javaArgs.add("-XX:MaxPermSize=" + javaOptions.getMaxPermSize());
 		}
 		if (!Strings.isNullOrEmpty(javaOptions.getTmpDir())) {
-			addJavaArgs("-Djava.io.tmpdir=" + javaOptions.getTmpDir());
+			javaArgs.add("-Djava.io.tmpdir=" + javaOptions.getTmpDir());
 		}
 		if (!Strings.isNullOrEmpty(javaOptions.getUserDir())) {
-			addJavaArgs("-Duser.dir=" + javaOptions.getUserDir());
+			javaArgs.add("-Duser.dir=" + javaOptions.getUserDir());
 		}
 		if (javaOptions.isDebugJava()) {
 			StringBuilder sb = new StringBuilder();
@@ -180,10 +278,33 @@ public abstract class JavaCommandBuilder {
 			sb.append(javaOptions.getDebugPort());
 			sb.append(",suspend=");
 			sb.append(javaOptions.isDebugSuspend() ? "y" : "n");
-			addJavaArgs(sb.toString());
+			javaArgs.add(sb.toString());
 		}
-		for (String javaArg : javaOptions.getJavaArgs()) {
-			addJavaArgs(javaArg);
+		javaArgs.addAll(javaOptions.getJavaArgs());
+		return javaArgs;
+	}
+
+	private static class ClassPathAccumulator implements PathAccumulator {
+		private final List<String> paths = new ArrayList<>();
+
+		@Override
+		public String get() {
+			return Joiner.on(File.pathSeparator).join(paths);
+		}
+
+		@Override
+		public String[] getArray() {
+			return paths.toArray(new String[0]);
+		}
+
+		@Override
+		public void add(String classPath) {
+			paths.add(classPath);
+		}
+
+		@Override
+		public void makeJar() throws IOException {
+			// noop
 		}
 	}
 
@@ -15,31 +15,48 @@
 package fr.putnami.gwt.gradle.helper;
 
 import com.google.common.base.Joiner;
+import com.google.common.hash.Hashing;
 
 import org.gradle.internal.jvm.Jvm;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Method;
-import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import fr.putnami.gwt.gradle.extension.LaunchMode;
+import fr.putnami.gwt.gradle.util.MainRunner;
 
 public class JavaExecutor {
+
+	private static final long ARG_FILE_RETENTION = TimeUnit.HOURS.toMillis(1);
+	/** Longest command line of cmd. */
+	private static final int WINDOWS_MAX_COMMAND_LINE = 8191;
+	/** Longest argument or environment string on Linux (MAX_ARG_STRLEN), terminating null included. */
+	private static final int UNIX_MAX_ARG_LENGTH = 128 * 1024;
 	
 	private String javaExec;
 	private final String entryPoint;
 	private List<String> jvmArgs;
 	private String[] classPath;
 	private List<String> args;
+	private LaunchMode launchMode = LaunchMode.DEFAULT;
+	private File argFileDir;
 	
 	public JavaExecutor(String entryPoint) {
 		this.entryPoint = entryPoint;
 	}
 	
 	public JavaExecutor(String javaExec, List<String> jvmArgs, String[] classPath, String entryPoint, List<String> args) {
+		this.javaExec = javaExec;
 		this.jvmArgs = jvmArgs;
 		this.classPath = classPath;
 		this.entryPoint = entryPoint;
@@ -81,8 +98,24 @@ public class JavaExecutor {
 	public String getEntryPoint() {
 		return entryPoint;
 	}
+
+	public LaunchMode getLaunchMode() {
+		return launchMode;
+	}
+
+	public void setLaunchMode(LaunchMode launchMode) {
+		this.launchMode = launchMode;
+	}
+
+	public File getArgFileDir() {
+		return argFileDir;
+	}
+
+	public void setArgFileDir(File argFileDir) {
+		this.argFileDir = argFileDir;
+	}
 	
-	private String[] getCommand() {
+	public String[] getCommand() {
 		if (javaExec == null) {
 			javaExec = Jvm.current().getJavaExecutable().getAbsolutePath();
 		}
@@ -100,32 +133,273 @@ public class JavaExecutor {
 		return command;
 	}
 	
+	/**
+	 * The command with the classpath compressed, the common prefixes of the classpath entries are
+	 * replaced by environment variables. The command goes through a shell which expands them.
+	 *
+	 * @return null when the classpath is too long for the shell launcher
+	 */
+	public CompressedArguments getCompressedCommand() {
+		if (javaExec == null) {
+			javaExec = Jvm.current().getJavaExecutable().getAbsolutePath();
+		}
+
+		List<String> entries = getClassPathEntries();
+		FileListCompressor compressor = new FileListCompressor();
+		String compressedClassPath = compressor.compressFileList(entries);
+
+		List<String> allArgs = new ArrayList<>();
+		if (compressor.isWindows()) {
+			// cmd expands the %V% references of its command line
+			allArgs.add("cmd");
+			allArgs.add("/c");
+			allArgs.add(javaExec);
+			allArgs.addAll(jvmArgs);
+			allArgs.add("-cp");
+			allArgs.add(compressedClassPath);
+		} else {
+			// The classpath is the only expanded part, the other arguments are given as positional parameters
+			allArgs.add("/bin/sh");
+			allArgs.add("-c");
+			allArgs.add("CLASSPATH=\"" + compressedClassPath + "\"; export CLASSPATH; exec \"$0\" \"$@\"");
+			allArgs.add(javaExec);
+			allArgs.addAll(jvmArgs);
+		}
+		allArgs.add(entryPoint);
+		allArgs.addAll(args);
+		if (compressor.isWindows() ? commandLineLength(allArgs) > WINDOWS_MAX_COMMAND_LINE
+			: utf8Length("CLASSPATH=" + Joiner.on(File.pathSeparator).join(entries)) >= UNIX_MAX_ARG_LENGTH) {
+			// cmd limits its whole command line, sh gives the expanded classpath to java as one string
+			return null;
+		}
+		return new CompressedArguments(allArgs, compressor.getEnvironmentVariables());
+	}
+
+	private List<String> getClassPathEntries() {
+		List<String> entries = new ArrayList<>();
+		for (String path : classPath) {
+			for (String entry : path.split(File.pathSeparator)) {
+				if (!entry.isEmpty()) {
+					entries.add(entry);
+				}
+			}
+		}
+		return entries;
+	}
+
+	private static int commandLineLength(List<String> args) {
+		int length = 0;
+		for (String arg : args) {
+			// separator and quotes
+			length += arg.length() + 3;
+		}
+		return length;
+	}
+
+	private static int utf8Length(String value) {
+		return value.getBytes(StandardCharsets.UTF_8).length;
+	}
+
+	/**
+	 * The pathing jar of the classpath, used instead of the compressed launcher when the classpath is
+	 * too long for it. The jar is named after the hash of the classpath and is reused while the
+	 * classpath does not change.
+	 */
+	private File getPathingJar() {
+		String name = entryPoint.substring(entryPoint.lastIndexOf('.') + 1);
+		String hash = Hashing.sha256().hashString(Joiner.on(File.pathSeparator).join(getClassPathEntries()),
+			StandardCharsets.UTF_8).toString();
+		return new File(argFileDir, name + "-" + hash.substring(0, 16) + ".jar");
+	}
+
+	private String[] getPathingJarCommand(File pathingJar) {
+		if (javaExec == null) {
+			javaExec = Jvm.current().getJavaExecutable().getAbsolutePath();
+		}
+		List<String> allArgs = new ArrayList<>();
+		allArgs.add(javaExec);
+		allArgs.addAll(jvmArgs);
+		allArgs.add("-cp");
+		allArgs.add(pathingJar.getAbsolutePath());
+		allArgs.add(entryPoint);
+		allArgs.addAll(args);
+		return allArgs.toArray(new String[0]);
+	}
+
+	private void writePathingJar(File pathingJar) throws IOException {
+		if (pathingJar.isFile()) {
+			pathingJar.setLastModified(System.currentTimeMillis());
+			return;
+		}
+		argFileDir.mkdirs();
+		deleteStaleArgFiles(entryPoint.substring(entryPoint.lastIndexOf('.') + 1), ".jar");
+		PathingJarCreator creator = new PathingJarCreator(pathingJar);
+		for (String entry : getClassPathEntries()) {
+			creator.add(entry);
+		}
+		creator.makeJar();
+	}
+
+	/**
+	 * The command with the JVM args, classpath and program args in an argument file. The file is
+	 * named after the hash of its content and is reused while the command does not change, it is
+	 * written when the process is started.
+	 */
+	public String[] getArgFileCommand() {
+		return new String[] {getCommand()[0], "@" + getArgFile(getArgFileContent()).getAbsolutePath()};
+	}
+
+	private byte[] getArgFileContent() {
+		String[] command = getCommand();
+		StringBuilder content = new StringBuilder();
+		for (int i = 1; i < command.length; i++) {
+			content.append('"');
+			for (char c : command[i].toCharArray()) {
+				if (c == '"' || c == '\\') {
+					content.append('\\').append(c);
+				} else if (c == '\n') {
+					content.append("\\n");
+				} else if (c == '\r') {
+					content.append("\\r");
+				} else {
+					content.append(c);
+				}
+			}
+			content.append("\"\n");
+		}
+		return content.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private File getArgFile(byte[] content) {
+		String name = entryPoint.substring(entryPoint.lastIndexOf('.') + 1);
+		return new File(argFileDir, name + "-" + Hashing.sha256().hashBytes(content).toString().substring(0, 16) + ".args");
+	}
+
+	private void writeArgFile() throws IOException {
+		byte[] bytes = getArgFileContent();
+		File argFile = getArgFile(bytes);
+		if (argFile.isFile()) {
+			argFile.setLastModified(System.currentTimeMillis());
+		} else {
+			argFileDir.mkdirs();
+			deleteStaleArgFiles(entryPoint.substring(entryPoint.lastIndexOf('.') + 1), ".args");
+			File tmpFile = File.createTempFile(argFile.getName(), ".tmp", argFileDir);
+			try {
+				Files.write(tmpFile.toPath(), bytes);
+				Files.move(tmpFile.toPath(), argFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tmpFile.toPath());
+			}
+		}
+	}
+
+	/**
+	 * Removes the argument files or pathing jars of the entry point unused for a while. The JVM reads
+	 * them when it starts, so the recent files are kept for the processes being launched.
+	 */
+	private void deleteStaleArgFiles(String name, String extension) {
+		File[] files = argFileDir.listFiles();
+		if (files == null) {
+			return;
+		}
+		long limit = System.currentTimeMillis() - ARG_FILE_RETENTION;
+		for (File file : files) {
+			if (file.getName().startsWith(name + "-") && file.getName().endsWith(extension) && file.lastModified() < limit) {
+				file.delete();
+			}
+		}
+	}
+
 	public String getCommandLine() {
+		if (launchMode == LaunchMode.ARGFILE) {
+			return Joiner.on(' ').join(getArgFileCommand());
+		}
+		if (launchMode == LaunchMode.COMPRESSED) {
+			CompressedArguments compressed = getCompressedCommand();
+			if (compressed == null) {
+				return Joiner.on(' ').join(argFileDir == null ? getCommand() : getPathingJarCommand(getPathingJar()));
+			}
+			return Joiner.on(' ').join(compressed.getEnvp()) + " " + Joiner.on(' ').join(compressed.getArgs());
+		}
 		return Joiner.on(' ').join(getCommand());
 	}
-		
+
 	public Process runProcess() throws IOException {
+		if (launchMode == LaunchMode.COMPRESSED) {
+			CompressedArguments compressed = getCompressedCommand();
+			if (compressed == null && argFileDir != null) {
+				File pathingJar = getPathingJar();
+				writePathingJar(pathingJar);
+				return Runtime.getRuntime().exec(getPathingJarCommand(pathingJar));
+			}
+			if (compressed == null) {
+				return Runtime.getRuntime().exec(getCommand());
+			}
+			ProcessBuilder processBuilder = new ProcessBuilder(compressed.getArgs());
+			// The variables are added to the inherited environment
+			Map<String, String> environment = processBuilder.environment();
+			for (String variable : compressed.getEnvp()) {
+				int index = variable.indexOf('=');
+				environment.put(variable.substring(0, index), variable.substring(index + 1));
+			}
+			return processBuilder.start();
+		}
+		if (launchMode == LaunchMode.ARGFILE) {
+			writeArgFile();
+			return Runtime.getRuntime().exec(getArgFileCommand());
+		}
 		return Runtime.getRuntime().exec(getCommand());
 	}
 	
-	public void run() throws Exception {
-		URL[] urls = new URL[classPath.length];
-		int index = 0;
-		for (String path : classPath) {
-			File file = new File(path);
-			if (file.isDirectory() && !path.endsWith("/")) {
-				file = new File(path + "/");
+	/**
+	 * System properties (-D) of the JVM args, file.encoding excepted as it is only read when the JVM
+	 * starts.
+	 */
+	public Map<String, String> getSystemProperties() {
+		Map<String, String> properties = new LinkedHashMap<>();
+		for (String jvmArg : jvmArgs) {
+			if (isSystemProperty(jvmArg)) {
+				int index = jvmArg.indexOf('=');
+				if (index < 0) {
+					properties.put(jvmArg.substring(2), "");
+				} else {
+					properties.put(jvmArg.substring(2, index), jvmArg.substring(index + 1));
+				}
 			}
-			urls[index++] = file.toURI().toURL();
 		}
-		ClassLoader childLoader = new URLClassLoader(urls, getClass().getClassLoader());
-		
-		Class<?> mainClass = Class.forName(entryPoint, true, childLoader);
-		Method mainMethod = mainClass.getDeclaredMethod("main", String[].class);
-			
-		mainMethod.invoke(null, new Object[]{ args.toArray(new String[0]) });
+		return properties;
 	}
-	
+
+	public static boolean isSystemProperty(String jvmArg) {
+		return jvmArg.startsWith("-D") && !jvmArg.startsWith("-Dfile.encoding=");
+	}
+
+	/**
+	 * The system properties read once per JVM, the long-lived JVMs are started with them instead of
+	 * receiving them per run.
+	 */
+	public static boolean isJvmWideProperty(String jvmArg) {
+		return jvmArg.startsWith("-D" + UnitCache.DIR_PROPERTY + "=");
+	}
+
+	/**
+	 * Runs the entry point in the current JVM. The shared classpath is loaded once and kept between
+	 * runs while unchanged, the classpath is loaded in a new class loader on each run. Only the system
+	 * properties of the JVM args are applied, runs are serialized as they are JVM wide.
+	 *
+	 * @return the exit status
+	 */
+	public int run(List<String> sharedClassPath) throws Exception {
+		synchronized (JavaExecutor.class) {
+			ClassLoader parent = ClassLoaderCache.get(sharedClassPath, getSystemProperties().get(UnitCache.DIR_PROPERTY));
+			try (URLClassLoader childLoader = new URLClassLoader(ClassLoaderCache.toUrls(Arrays.asList(classPath)),
+				parent)) {
+				return MainRunner.run(childLoader, entryPoint, args.toArray(new String[0]), getSystemProperties());
+			}
+		}
+	}
+
 	@Override
 	public String toString() {
 		return "SandboxedJava [entryPoint=" + entryPoint + ", jvmArgs=" + jvmArgs + ", classPath="
@@ -40,6 +40,7 @@ public class JettyServerBuilder extends JavaCommandBuilder {
 
 		setPathingJar(jettyOption.getPathingJar());
 		configureJavaArgs(jettyOption);
+		setArgFileDir(new File(project.getBuildDir(), "putnami/conf/args"));
 
 		addClassPath(jettyClassPath.getAsPath());
 		addClassPath(runtimeConf.getAsPath());
@@ -61,6 +62,6 @@ public class JettyServerBuilder extends JavaCommandBuilder {
 	}
 
 	public JavaAction buildJavaAction() {
-		return new JavaAction(this.toJava());
+		return newJavaAction();
 	}
 }
@@ -0,0 +1,113 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.helper;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+
+/**
+ * Hands out the permutation workers of the machine between the GWT compilations of the build.
+ * <p>
+ * The capacity (cores and free physical memory) is evaluated when a compilation starts and no
+ * reservation is held, so that concurrent tasks of a parallel build share it instead of each one
+ * sizing its workers against the whole machine. A compilation waits until at least one worker fits.
+ */
+public final class LocalWorkersScheduler {
+
+	private static final LocalWorkersScheduler INSTANCE = new LocalWorkersScheduler();
+
+	private int availableWorkers;
+	private long availableMemory;
+	private int reservations = 0;
+
+	private LocalWorkersScheduler() {
+	}
+
+	public static LocalWorkersScheduler get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Reserves up to the requested workers, each one using memPerWorker MB.
+	 */
+	public synchronized Reservation reserve(int requested, int memPerWorker) throws InterruptedException {
+		if (reservations == 0) {
+			evalCapacity();
+		}
+		int workers = grantable(requested, memPerWorker);
+		while (workers < 1 && reservations > 0) {
+			wait();
+			if (reservations == 0) {
+				evalCapacity();
+			}
+			workers = grantable(requested, memPerWorker);
+		}
+		workers = Math.max(1, workers);
+		Reservation reservation = new Reservation(workers, (long) workers * memPerWorker);
+		availableWorkers -= reservation.getWorkers();
+		availableMemory -= reservation.getMemory();
+		reservations++;
+		return reservation;
+	}
+
+	public synchronized void release(Reservation reservation) {
+		availableWorkers += reservation.getWorkers();
+		availableMemory += reservation.getMemory();
+		reservations--;
+		notifyAll();
+	}
+
+	private int grantable(int requested, int memPerWorker) {
+		long workers = Math.min(requested, availableWorkers);
+		if (memPerWorker > 0) {
+			workers = Math.min(workers, availableMemory / memPerWorker);
+		}
+		return (int) Math.max(0, workers);
+	}
+
+	private void evalCapacity() {
+		availableWorkers = Runtime.getRuntime().availableProcessors();
+		availableMemory = Long.MAX_VALUE;
+		OperatingSystemMXBean osMBean = ManagementFactory.getOperatingSystemMXBean();
+		if (osMBean instanceof com.sun.management.OperatingSystemMXBean) {
+			com.sun.management.OperatingSystemMXBean sunOsMBean = (com.sun.management.OperatingSystemMXBean) osMBean;
+			availableMemory = sunOsMBean.getFreePhysicalMemorySize() / (1024L * 1024L);
+		}
+	}
+
+	public static final class Reservation {
+		private final int workers;
+		private final long memory;
+
+		private Reservation(int workers, long memory) {
+			this.workers = workers;
+			this.memory = memory;
+		}
+
+		/**
+		 * Number of permutation workers.
+		 */
+		public int getWorkers() {
+			return workers;
+		}
+
+		/**
+		 * Heap budget of the workers in MB.
+		 */
+		public long getMemory() {
+			return memory;
+		}
+	}
+}
@@ -16,21 +16,29 @@ package fr.putnami.gwt.gradle.helper;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.jar.Attributes;
+import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 
 public class PathingJarCreator implements PathAccumulator {
+	private static final String CLASSPATH_HASH = "Putnami-Classpath-Hash";
+
 	private final File resultingFile;
 	private final List<String> paths;
 
@@ -54,26 +62,61 @@ public class PathingJarCreator implements PathAccumulator {
 		return paths.toArray(new String[0]);
 	}
 
+	/**
+	 * Writes the pathing jar. The jar is keyed by a hash of the ordered classpath and is left
+	 * untouched while the classpath does not change, so its modification time stays stable.
+	 */
 	public void makeJar() throws IOException {
-		List<String> completed = new ArrayList<>(paths.size());
-		Set<String> seen = new HashSet<>(paths.size());
-		
-		Path myPath = resultingFile.getParentFile().toPath();
+		Set<String> entries = new LinkedHashSet<>(paths.size());
+		Hasher hasher = Hashing.sha256().newHasher();
 		for (String path : paths) {
-			if (! seen.contains(path) && !Strings.isNullOrEmpty(path)) {
-				File pathFile = new File(path);
-				Path relativePath = myPath.relativize(pathFile.toPath());
-				String extra = pathFile.isDirectory() ? "/" : "";
-				completed.add(relativePath.toString().replace(File.separator, "/") + extra);
-				seen.add(path);
+			if (!Strings.isNullOrEmpty(path) && entries.add(path)) {
+				hasher.putString(path, StandardCharsets.UTF_8);
+				// A folder entry needs a trailing slash, the hash changes when a folder is created.
+				hasher.putBoolean(new File(path).isDirectory());
 			}
 		}
-		
+		String hash = hasher.hash().toString();
+		if (hash.equals(readHash())) {
+			return;
+		}
+
+		List<String> completed = new ArrayList<>(entries.size());
+		Path myPath = resultingFile.getParentFile().toPath();
+		for (String path : entries) {
+			File pathFile = new File(path);
+			Path relativePath = myPath.relativize(pathFile.toPath());
+			String extra = pathFile.isDirectory() ? "/" : "";
+			completed.add(relativePath.toString().replace(File.separator, "/") + extra);
+		}
+
 		Manifest manifest = new Manifest();
 		manifest.getMainAttributes().putValue(Attributes.Name.MANIFEST_VERSION.toString(), "1.0");
 		manifest.getMainAttributes().putValue(Attributes.Name.CLASS_PATH.toString(), Joiner.on(" ").join(completed));
-		
-		new JarOutputStream(new FileOutputStream(resultingFile), manifest).close();
+		manifest.getMainAttributes().putValue(CLASSPATH_HASH, hash);
+
+		// Written aside then moved, a concurrent launch never reads a partial jar.
+		resultingFile.getParentFile().mkdirs();
+		File tmpFile = File.createTempFile(resultingFile.getName(), ".tmp", resultingFile.getParentFile());
+		try {
+			new JarOutputStream(new FileOutputStream(tmpFile), manifest).close();
+			Files.move(tmpFile.toPath(), resultingFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmpFile.toPath());
+		}
 	}
-	
+
+	private String readHash() {
+		if (!resultingFile.isFile()) {
+			return null;
+		}
+		try (JarFile jar = new JarFile(resultingFile)) {
+			Manifest manifest = jar.getManifest();
+			return manifest == null ? null : manifest.getMainAttributes().getValue(CLASSPATH_HASH);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
 }
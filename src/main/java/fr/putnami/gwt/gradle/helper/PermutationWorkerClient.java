@@ -0,0 +1,281 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.helper;
+
+import com.google.common.collect.Lists;
+
+import org.gradle.api.logging.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.putnami.gwt.gradle.daemon.PermutationWorker;
+
+/**
+ * Sends permutations to compile to the permutation workers.
+ * <p>
+ * Each worker gets as many permutations at a time as it compiles, taken from a queue shared by all
+ * the workers. When a connection fails, or misses its heartbeats, its permutation goes back to the
+ * queue for another slot. A worker is left out after several failed connections in a row. The permutations which could not be sent
+ * to any worker are returned to be compiled locally.
+ * </p>
+ */
+public class PermutationWorkerClient {
+
+	private static final int MAX_ATTEMPTS = 3;
+	private static final int MAX_WORKER_FAILURES = 3;
+	private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+	private static final int HEARTBEAT_TIMEOUT_MILLIS = PermutationWorker.HEARTBEAT_MILLIS * 5;
+
+	private final List<String> workers;
+	private final String token;
+	private final String gwtVersion;
+	private final Logger logger;
+	private final ConcurrentMap<String, Object> uploadLocks = new ConcurrentHashMap<>();
+
+	public PermutationWorkerClient(List<String> workers, String token, String gwtVersion, Logger logger) {
+		this.workers = workers;
+		this.token = token == null ? "" : token;
+		this.gwtVersion = gwtVersion;
+		this.logger = logger;
+	}
+
+	/**
+	 * Compiles the permutations on the workers, each compiled permutation is written in its target
+	 * file.
+	 *
+	 * @return the permutations which could not be compiled by a worker
+	 * @throws RuntimeException when a permutation fails to compile
+	 */
+	public List<Job> compile(List<Job> jobs) throws InterruptedException {
+		final BlockingDeque<Job> queue = new LinkedBlockingDeque<>(jobs);
+		final AtomicInteger pending = new AtomicInteger(jobs.size());
+		final List<Job> failures = Collections.synchronizedList(Lists.<Job> newArrayList());
+		final List<Job> left = Collections.synchronizedList(Lists.<Job> newArrayList());
+		final Set<String> lostWorkers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			for (final String worker : workers) {
+				int slots = getSlots(worker);
+				logger.info("GWT permutation worker {} compiles {} permutations at a time", worker, slots);
+				final AtomicInteger connectionFailures = new AtomicInteger();
+				for (int i = 0; i < slots; i++) {
+					executor.submit(new Runnable() {
+						@Override
+						public void run() {
+							while (pending.get() > 0 && !lostWorkers.contains(worker)) {
+								Job job;
+								try {
+									job = queue.poll(200, TimeUnit.MILLISECONDS);
+								} catch (InterruptedException e) {
+									return;
+								}
+								if (job == null) {
+									continue;
+								}
+								try {
+									if (!send(worker, job)) {
+										failures.add(job);
+									}
+									connectionFailures.set(0);
+									pending.decrementAndGet();
+								} catch (IOException e) {
+									logger.warn("GWT permutation worker {} failed while compiling {}: {}", worker, job,
+										e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage());
+									if (connectionFailures.incrementAndGet() >= MAX_WORKER_FAILURES
+										&& lostWorkers.add(worker)) {
+										logger.warn("GWT permutation worker {} left out after {} failed connections", worker,
+											MAX_WORKER_FAILURES);
+									}
+									if (job.attempts.incrementAndGet() < MAX_ATTEMPTS) {
+										queue.addFirst(job);
+									} else {
+										left.add(job);
+										pending.decrementAndGet();
+									}
+								}
+							}
+						}
+					});
+				}
+			}
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} finally {
+			executor.shutdownNow();
+		}
+		queue.drainTo(left);
+
+		if (!failures.isEmpty()) {
+			throw new RuntimeException("Failed to compile GWT permutations " + failures
+				+ ", see the logs of the permutation workers");
+		}
+		if (!left.isEmpty()) {
+			logger.warn("{} GWT permutations could not be compiled by the permutation workers", left.size());
+		}
+		return left;
+	}
+
+	/**
+	 * @return the number of permutations the worker compiles at a time, 0 when it is not available
+	 */
+	private int getSlots(String worker) {
+		try (Socket socket = connect(worker)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out.writeByte(PermutationWorker.OP_INFO);
+			out.writeUTF(token);
+			out.flush();
+			byte reply = in.readByte();
+			if (reply == PermutationWorker.REPLY_REJECTED) {
+				throw new IOException(in.readUTF());
+			}
+			return in.readInt();
+		} catch (IOException e) {
+			logger.warn("GWT permutation worker {} not available: {}", worker, e.getMessage());
+			return 0;
+		}
+	}
+
+	/**
+	 * @return false when the permutation failed to compile
+	 * @throws IOException when the worker is lost
+	 */
+	private boolean send(String worker, Job job) throws IOException {
+		try (Socket socket = connect(worker)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+			// The first permutation of a precompilation uploads it, the others wait and reuse it.
+			Object uploadLock = getUploadLock(worker + "/" + job.precompilationHash);
+			synchronized (uploadLock) {
+				out.writeByte(PermutationWorker.OP_COMPILE);
+				out.writeUTF(token);
+				out.writeUTF(gwtVersion);
+				out.writeUTF(job.moduleName);
+				out.writeInt(job.permutation);
+				out.writeUTF(job.precompilationHash);
+				out.flush();
+				byte reply = readReply(in);
+				if (reply == PermutationWorker.REPLY_NEED_PRECOMPILATION) {
+					out.writeLong(job.precompilation.length());
+					Files.copy(job.precompilation.toPath(), out);
+					out.flush();
+					reply = readReply(in);
+				}
+				if (reply != PermutationWorker.REPLY_READY) {
+					throw new IOException("unexpected reply " + reply);
+				}
+			}
+
+			byte reply = in.readByte();
+			while (reply == PermutationWorker.REPLY_HEARTBEAT) {
+				reply = in.readByte();
+			}
+			if (reply != PermutationWorker.REPLY_RESULT) {
+				throw new IOException("unexpected reply " + reply);
+			}
+			if (in.readInt() != 0) {
+				return false;
+			}
+			long size = in.readLong();
+			Files.createDirectories(job.target.getParentFile().toPath());
+			File tmpFile = new File(job.target.getPath() + ".tmp");
+			try (OutputStream fileOut = Files.newOutputStream(tmpFile.toPath())) {
+				PermutationWorker.copy(in, fileOut, size);
+			}
+			Files.move(tmpFile.toPath(), job.target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			logger.info("GWT permutation {} compiled by {}", job, worker);
+			return true;
+		}
+	}
+
+	private static byte readReply(DataInputStream in) throws IOException {
+		byte reply = in.readByte();
+		if (reply == PermutationWorker.REPLY_REJECTED) {
+			throw new IOException("rejected, " + in.readUTF());
+		}
+		return reply;
+	}
+
+	private Object getUploadLock(String key) {
+		Object lock = new Object();
+		Object previous = uploadLocks.putIfAbsent(key, lock);
+		return previous == null ? lock : previous;
+	}
+
+	private static Socket connect(String worker) throws IOException {
+		int index = worker.lastIndexOf(':');
+		if (index <= 0) {
+			throw new IOException("invalid worker address " + worker + ", expected host:port");
+		}
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(worker.substring(0, index),
+				Integer.parseInt(worker.substring(index + 1))), CONNECT_TIMEOUT_MILLIS);
+			socket.setSoTimeout(HEARTBEAT_TIMEOUT_MILLIS);
+		} catch (IOException | RuntimeException e) {
+			socket.close();
+			throw e;
+		}
+		return socket;
+	}
+
+	/**
+	 * A permutation to compile.
+	 */
+	public static final class Job {
+		private final String moduleName;
+		private final int permutation;
+		private final File precompilation;
+		private final String precompilationHash;
+		private final File target;
+		private final AtomicInteger attempts = new AtomicInteger();
+
+		public Job(String moduleName, int permutation, File precompilation, String precompilationHash, File target) {
+			this.moduleName = moduleName;
+			this.permutation = permutation;
+			this.precompilation = precompilation;
+			this.precompilationHash = precompilationHash;
+			this.target = target;
+		}
+
+		@Override
+		public String toString() {
+			return moduleName + "#" + permutation;
+		}
+	}
+}
@@ -0,0 +1,333 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.helper;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+
+import org.gradle.api.Project;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.putnami.gwt.gradle.extension.CompilerOption;
+import fr.putnami.gwt.gradle.extension.PutnamiExtension;
+import fr.putnami.gwt.gradle.util.FolderLock;
+import fr.putnami.gwt.gradle.util.ResourceUtils;
+
+/**
+ * GWT persistent unit cache, kept in a folder per GWT version and source level.
+ * <p>
+ * The cache is bounded: when it grows over its max size, the least recently used folders are
+ * removed first, then the oldest files of the folder in use.
+ * </p>
+ * <p>
+ * The cache can be shared by the builds and the tasks running at the same time. The processes using
+ * the cache hold a shared lock on the cache root, the eviction only runs under an exclusive lock,
+ * when nobody uses the cache. The file locks are held per JVM, the tasks of a build running in the
+ * same JVM share the lock of their JVM. When another class loader of the JVM holds the lock, the
+ * cache is used by this JVM already: the shared lock is not taken again and the eviction is skipped.
+ * </p>
+ * <p>
+ * GWT reads the cache folder once per JVM (or per SDK class loader) and keeps its files open. The
+ * long-lived JVMs (compiler daemon, gradle workers) and the cached SDK class loaders are keyed by
+ * their cache folder and hold its folder lock (see {@link FolderLock}) as long as they live, they
+ * take it while a build holds the shared lock. The eviction skips the folders in use.
+ * </p>
+ */
+public class UnitCache {
+	public static final String SHARED_DIR = ".gradle/putnami/unit-cache";
+	public static final String DIR_PROPERTY = "gwt.persistentunitcachedir";
+
+	private static final String LAST_USED_MARKER = ".last-used";
+	private static final String LOCK_FILE = ".lock";
+	private static final Map<String, RootLock> LOCKS = new HashMap<>();
+
+	private final File root;
+	private final File dir;
+	private final long maxSize;
+
+	/**
+	 * @param maxSize the max size of the cache in MB, unbounded when null or lower than 1
+	 */
+	public UnitCache(File root, String gwtVersion, String sourceLevel, Integer maxSize) {
+		this.root = root;
+		this.dir = new File(root, gwtVersion + "-" + (Strings.isNullOrEmpty(sourceLevel) ? "default" : sourceLevel));
+		this.maxSize = maxSize == null ? 0 : maxSize * 1024L * 1024L;
+	}
+
+	/**
+	 * The unit cache of the project, shared by all the projects when the putnami sharedUnitCache is
+	 * set.
+	 *
+	 * @param sourceLevel the source level, the one of putnami when empty
+	 */
+	public static UnitCache of(Project project, String sourceLevel) {
+		PutnamiExtension putnami = project.getExtensions().getByType(PutnamiExtension.class);
+		CompilerOption compilerOptions = putnami.getCompile();
+		File root = compilerOptions.getUnitCacheDir();
+		if (putnami.isSharedUnitCache()) {
+			root = new File(project.getRootProject().getProjectDir(), SHARED_DIR);
+		} else if (root == null) {
+			root = new File(project.getProjectDir(), SHARED_DIR);
+		}
+		return new UnitCache(root, putnami.getGwtVersion(),
+			Strings.isNullOrEmpty(sourceLevel) ? putnami.getSourceLevel() : sourceLevel,
+			compilerOptions.getUnitCacheMaxSize());
+	}
+
+	public File getDir() {
+		return dir;
+	}
+
+	/**
+	 * Takes the shared lock of the cache, to be closed once the cache is no longer used. The cache is
+	 * evicted first when nobody else uses it.
+	 */
+	public Closeable acquire() throws IOException {
+		prepare();
+		if (maxSize > 0) {
+			try (Closeable exclusive = tryExclusive()) {
+				if (exclusive != null) {
+					evict();
+				}
+			}
+		}
+		final String key = root.getCanonicalPath();
+		synchronized (LOCKS) {
+			RootLock rootLock = getRootLock(key);
+			try {
+				while (rootLock.exclusive) {
+					LOCKS.wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			if (rootLock.users == 0) {
+				rootLock.channel = openLockFile();
+				try {
+					rootLock.lock = rootLock.channel.lock(0, Long.MAX_VALUE, true);
+				} catch (OverlappingFileLockException e) {
+					// held by another class loader of this JVM
+					rootLock.release();
+				} catch (IOException e) {
+					rootLock.release();
+					throw e;
+				}
+			}
+			rootLock.users++;
+		}
+		return new Closeable() {
+			private boolean closed;
+
+			@Override
+			public void close() throws IOException {
+				synchronized (LOCKS) {
+					if (closed) {
+						return;
+					}
+					closed = true;
+					RootLock rootLock = LOCKS.get(key);
+					rootLock.users--;
+					if (rootLock.users == 0) {
+						rootLock.release();
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Takes the exclusive lock of the cache if nobody uses it.
+	 *
+	 * @return the lock to close, null when the cache is in use
+	 */
+	private Closeable tryExclusive() throws IOException {
+		final String key = root.getCanonicalPath();
+		synchronized (LOCKS) {
+			final RootLock rootLock = getRootLock(key);
+			if (rootLock.users > 0 || rootLock.exclusive) {
+				return null;
+			}
+			FileChannel channel = openLockFile();
+			FileLock lock;
+			try {
+				lock = channel.tryLock(0, Long.MAX_VALUE, false);
+			} catch (OverlappingFileLockException e) {
+				// the cache is used by another class loader of this JVM
+				lock = null;
+			}
+			if (lock == null) {
+				channel.close();
+				return null;
+			}
+			rootLock.channel = channel;
+			rootLock.lock = lock;
+			rootLock.exclusive = true;
+			return new Closeable() {
+				@Override
+				public void close() throws IOException {
+					synchronized (LOCKS) {
+						rootLock.exclusive = false;
+						rootLock.release();
+						LOCKS.notifyAll();
+					}
+				}
+			};
+		}
+	}
+
+	private static RootLock getRootLock(String key) {
+		RootLock rootLock = LOCKS.get(key);
+		if (rootLock == null) {
+			rootLock = new RootLock();
+			LOCKS.put(key, rootLock);
+		}
+		return rootLock;
+	}
+
+	private FileChannel openLockFile() throws IOException {
+		return FileChannel.open(new File(root, LOCK_FILE).toPath(), StandardOpenOption.CREATE,
+			StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Marks the cache folder as used.
+	 *
+	 * @return the cache folder
+	 */
+	public File prepare() {
+		ResourceUtils.ensureDir(dir);
+		try {
+			File marker = new File(dir, LAST_USED_MARKER);
+			if (!marker.createNewFile()) {
+				marker.setLastModified(System.currentTimeMillis());
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return dir;
+	}
+
+	private void evict() {
+		long size = sizeOf(root);
+		if (size <= maxSize) {
+			return;
+		}
+		List<File> folders = Lists.newArrayList();
+		File[] children = root.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				if (child.isDirectory() && !child.equals(dir) && !FolderLock.isInUse(child)) {
+					folders.add(child);
+				}
+			}
+		}
+		Collections.sort(folders, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return Long.compare(lastUsed(f1), lastUsed(f2));
+			}
+		});
+		for (File folder : folders) {
+			if (size <= maxSize) {
+				return;
+			}
+			size -= sizeOf(folder);
+			ResourceUtils.deleteDirectory(folder);
+		}
+
+		if (FolderLock.isInUse(dir)) {
+			return;
+		}
+		List<File> files = Lists.newArrayList();
+		children = dir.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				if (child.isFile() && !LAST_USED_MARKER.equals(child.getName())
+					&& !FolderLock.LOCK_FILE.equals(child.getName())) {
+					files.add(child);
+				}
+			}
+		}
+		Collections.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return Long.compare(f1.lastModified(), f2.lastModified());
+			}
+		});
+		for (File file : files) {
+			if (size <= maxSize) {
+				return;
+			}
+			long length = file.length();
+			if (file.delete()) {
+				size -= length;
+			}
+		}
+	}
+
+	private static long lastUsed(File folder) {
+		File marker = new File(folder, LAST_USED_MARKER);
+		return marker.isFile() ? marker.lastModified() : folder.lastModified();
+	}
+
+	private static long sizeOf(File file) {
+		if (file.isFile()) {
+			return file.length();
+		}
+		long size = 0;
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				size += sizeOf(child);
+			}
+		}
+		return size;
+	}
+
+	private static final class RootLock {
+		private FileChannel channel;
+		private FileLock lock;
+		private int users;
+		private boolean exclusive;
+
+		private void release() throws IOException {
+			try {
+				if (lock != null) {
+					lock.release();
+				}
+			} finally {
+				lock = null;
+				if (channel != null) {
+					channel.close();
+				}
+				channel = null;
+			}
+		}
+	}
+}
@@ -15,6 +15,9 @@
 package fr.putnami.gwt.gradle.task;
 
 import org.gradle.api.DefaultTask;
+import org.gradle.workers.WorkerExecutor;
+
+import javax.inject.Inject;
 
 public class AbstractTask extends DefaultTask {
 
@@ -23,4 +26,9 @@ public class AbstractTask extends DefaultTask {
 	public AbstractTask() {
 		setGroup(PWT_GROUP);
 	}
+
+	@Inject
+	protected WorkerExecutor getWorkerExecutor() {
+		throw new UnsupportedOperationException();
+	}
 }
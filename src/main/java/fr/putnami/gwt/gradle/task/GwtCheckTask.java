@@ -26,7 +26,9 @@ import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.SourceSet;
 import org.gradle.api.tasks.TaskAction;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.Callable;
 
@@ -34,6 +36,7 @@ import fr.putnami.gwt.gradle.action.JavaAction;
 import fr.putnami.gwt.gradle.extension.CompilerOption;
 import fr.putnami.gwt.gradle.extension.PutnamiExtension;
 import fr.putnami.gwt.gradle.helper.CompileCommandBuilder;
+import fr.putnami.gwt.gradle.helper.UnitCache;
 
 public class GwtCheckTask extends AbstractTask {
 
@@ -57,11 +60,20 @@ public class GwtCheckTask extends AbstractTask {
 		CompileCommandBuilder commandBuilder = new CompileCommandBuilder();
 		commandBuilder.addArg("-validateOnly");
 		commandBuilder.configure(getProject(), compilerOptions, getSrc(), null, getModules());
-		JavaAction compileAction = commandBuilder.buildJavaAction();
-		compileAction.execute(this);
-		compileAction.join();
-		if (compileAction.exitValue() != 0) {
-			throw new RuntimeException("Fail to compile GWT modules");
+		try (Closeable unitCacheLease = UnitCache.of(getProject(), compilerOptions.getSourceLevel()).acquire()) {
+			if (Boolean.TRUE.equals(compilerOptions.getGradleWorker())) {
+				commandBuilder.submit(getWorkerExecutor(), "Check GWT modules " + getModules());
+				getWorkerExecutor().await();
+			} else {
+				JavaAction compileAction = commandBuilder.buildJavaAction();
+				compileAction.execute(this);
+				compileAction.join();
+				if (compileAction.exitValue() != 0) {
+					throw new RuntimeException("Fail to compile GWT modules");
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		}
 	}
 
@@ -20,10 +20,14 @@ import org.gradle.api.Project;
 import org.gradle.api.plugins.JavaPlugin;
 import org.gradle.api.tasks.TaskAction;
 
+import java.io.Closeable;
+import java.io.IOException;
+
 import fr.putnami.gwt.gradle.action.JavaAction;
 import fr.putnami.gwt.gradle.extension.DevOption;
 import fr.putnami.gwt.gradle.extension.PutnamiExtension;
 import fr.putnami.gwt.gradle.helper.CodeServerBuilder;
+import fr.putnami.gwt.gradle.helper.UnitCache;
 import fr.putnami.gwt.gradle.util.ResourceUtils;
 
 public class GwtCodeServerTask extends AbstractTask {
@@ -52,9 +56,18 @@ public class GwtCodeServerTask extends AbstractTask {
 		}
 		sdmBuilder.configure(getProject(), putnami.getDev(), putnami.getModule());
 
-		JavaAction sdmAction = sdmBuilder.buildJavaAction();
-		sdmAction.execute(this);
-		sdmAction.join();
+		try (Closeable unitCacheLease = UnitCache.of(getProject(), putnami.getDev().getSourceLevel()).acquire()) {
+			if (Boolean.TRUE.equals(putnami.getDev().getGradleWorker())) {
+				sdmBuilder.submit(getWorkerExecutor(), "GWT CodeServer " + putnami.getModule());
+				getWorkerExecutor().await();
+			} else {
+				JavaAction sdmAction = sdmBuilder.buildJavaAction();
+				sdmAction.execute(this);
+				sdmAction.join();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	public void configureCodeServer(final Project project, final PutnamiExtension extention) {
@@ -0,0 +1,508 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.task;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import org.gradle.api.Project;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.internal.ConventionMapping;
+import org.gradle.api.internal.IConventionAware;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import fr.putnami.gwt.gradle.action.JavaAction;
+import fr.putnami.gwt.gradle.extension.CompilerOption;
+import fr.putnami.gwt.gradle.extension.PutnamiExtension;
+import fr.putnami.gwt.gradle.extension.WarLinkMode;
+import fr.putnami.gwt.gradle.helper.CompileCommandBuilder;
+import fr.putnami.gwt.gradle.helper.CompileMetrics;
+import fr.putnami.gwt.gradle.helper.LocalWorkersScheduler;
+import fr.putnami.gwt.gradle.helper.LocalWorkersScheduler.Reservation;
+import fr.putnami.gwt.gradle.helper.PermutationWorkerClient;
+import fr.putnami.gwt.gradle.util.DirectorySync;
+import fr.putnami.gwt.gradle.util.ResourceUtils;
+
+/**
+ * Second step of the split compilation, compiles each permutation of the precompiled modules in
+ * its own compiler.
+ * <p>
+ * The compiled permutations are kept in a cache, keyed by the content of the precompilation, so
+ * that only the permutations missing from the cache are compiled again, for instance after a
+ * failure of some of them.
+ * </p>
+ * <p>
+ * The permutations can be sharded between builds with the putnami.shard project property
+ * (index/count, the index starting at 0): each build compiles its slice of the permutations, the
+ * slices are then linked together by the gwtLink task (see putnami.shardDirs). The permutations of
+ * all the modules are dealt to the shards in turn. The output records the shard, and the
+ * precompilation and the permutations of each module, in the shard.properties file. It ships the
+ * precompilation of each module, which the link uses, since the precompilations of two checkouts of
+ * the same sources differ. The shards compile the same precompilation when it is given by the
+ * putnami.precompileDir project property, instead of precompiling.
+ * </p>
+ */
+@CacheableTask
+public class GwtCompilePermsTask extends AbstractTask {
+
+	public static final String NAME = "gwtCompilePerms";
+	public static final String SHARD_PROPERTY = "putnami.shard";
+	public static final String SHARD_FILE = "shard.properties";
+	public static final String PRECOMPILE_DIR_PROPERTY = "putnami.precompileDir";
+
+	static final String PRECOMPILATION_FILE = "precompilation.ser";
+	static final String PRECOMPILE_DIR = "precompile";
+
+	private static final String PERM_COUNT_FILE = "permCount.txt";
+	private static final int KEPT_PRECOMPILATIONS = 3;
+
+	private List<String> modules;
+	private File precompileDir;
+	private File permsDir;
+	private File reportDir;
+	private File cacheDir;
+	private FileCollection classpath;
+	private String gwtVersion;
+	private String shard;
+
+	public GwtCompilePermsTask() {
+		setDescription("Compile the permutations of the precompiled GWT modules");
+	}
+
+	@TaskAction
+	public void exec() throws Exception {
+		PutnamiExtension putnami = getProject().getExtensions().getByType(PutnamiExtension.class);
+		CompilerOption compilerOptions = getCompileTask().getCompilerOptions(putnami);
+
+		File workDir = new File(getTemporaryDir(), "work");
+		File workManifest = new File(getTemporaryDir(), "work.manifest");
+		File permsManifest = new File(getTemporaryDir(), "perms.manifest");
+		ResourceUtils.deleteDirectory(workDir);
+		ResourceUtils.deleteDirectory(getPermsDir());
+		ResourceUtils.deleteDirectory(getReportDir());
+		Files.deleteIfExists(workManifest.toPath());
+		Files.deleteIfExists(permsManifest.toPath());
+		DirectorySync workSync = new DirectorySync(workDir, workManifest);
+		DirectorySync permsSync = new DirectorySync(getPermsDir(), permsManifest);
+
+		int[] shardSpec = parseShard(getShard());
+		List<String> shardLines = Lists.newArrayList("shard=" + shardSpec[0] + "/" + shardSpec[1]);
+		List<Permutation> missing = Lists.newArrayList();
+		int total = 0;
+		int position = 0;
+		for (String module : getModules()) {
+			String moduleName = CompileCommandBuilder.getModuleName(compilerOptions, module);
+			File compilerDir = new File(getPrecompileDir(), moduleName + "/compiler");
+			File precompilation = new File(compilerDir, PRECOMPILATION_FILE);
+			String precompilationHash = hash(precompilation);
+			File moduleCacheDir = new File(getCacheDir(), moduleName + "/" + precompilationHash);
+			touch(moduleCacheDir);
+
+			int permCount = readPermCount(compilerDir);
+			List<Integer> slice = slice(position, permCount, shardSpec);
+			position += permCount;
+			for (int i : slice) {
+				File cached = new File(moduleCacheDir, getPermFileName(i));
+				if (!cached.isFile()) {
+					missing.add(new Permutation(module, moduleName, i, precompilation, precompilationHash, cached));
+				}
+				permsSync.addFile(cached, moduleName + "/" + getPermFileName(i), WarLinkMode.HARDLINK);
+			}
+			total += slice.size();
+			permsSync.addDirectory(new File(getPrecompileDir(), moduleName), moduleName + "/" + PRECOMPILE_DIR,
+				WarLinkMode.HARDLINK);
+			workSync.addFile(precompilation, moduleName + "/compiler/" + PRECOMPILATION_FILE, WarLinkMode.HARDLINK);
+			shardLines.add(moduleName + ".precompilation=" + precompilationHash);
+			shardLines.add(moduleName + ".permutations=" + Joiner.on(',').join(slice));
+		}
+		getLogger().info("{} of {} GWT permutations found in the cache", total - missing.size(), total);
+
+		if (!missing.isEmpty() && !compilerOptions.getRemoteWorkers().isEmpty()) {
+			missing = compileRemotely(compilerOptions, missing);
+		}
+		if (!missing.isEmpty()) {
+			workSync.sync();
+			compile(compilerOptions, workDir, missing);
+		}
+		permsSync.sync();
+		Files.write(new File(getPermsDir(), SHARD_FILE).toPath(), shardLines, Charsets.UTF_8);
+
+		for (String module : getModules()) {
+			trimCache(new File(getCacheDir(), CompileCommandBuilder.getModuleName(compilerOptions, module)));
+		}
+	}
+
+	/**
+	 * Sends the permutations to the permutation workers.
+	 *
+	 * @return the permutations left to compile locally
+	 */
+	private List<Permutation> compileRemotely(CompilerOption compilerOptions, List<Permutation> permutations)
+		throws InterruptedException {
+		Map<PermutationWorkerClient.Job, Permutation> jobs = new LinkedHashMap<>();
+		for (Permutation permutation : permutations) {
+			jobs.put(new PermutationWorkerClient.Job(permutation.moduleName, permutation.index,
+				permutation.precompilation, permutation.precompilationHash, permutation.cached), permutation);
+		}
+		getLogger().info("Sending {} GWT permutations to the permutation workers {}", permutations.size(),
+			compilerOptions.getRemoteWorkers());
+		PermutationWorkerClient client = new PermutationWorkerClient(compilerOptions.getRemoteWorkers(),
+			compilerOptions.getWorkerToken(), getGwtVersion(), getLogger());
+		List<Permutation> left = Lists.newArrayList();
+		for (PermutationWorkerClient.Job job : client.compile(Lists.newArrayList(jobs.keySet()))) {
+			left.add(jobs.get(job));
+		}
+		return left;
+	}
+
+	private void compile(CompilerOption compilerOptions, File workDir, List<Permutation> permutations)
+		throws InterruptedException, IOException {
+		int requestedWorkers = compilerOptions.getLocalWorkers() != null
+			? compilerOptions.getLocalWorkers() : Runtime.getRuntime().availableProcessors();
+		LocalWorkersScheduler scheduler = LocalWorkersScheduler.get();
+		Reservation reservation = scheduler.reserve(Math.min(requestedWorkers, permutations.size()),
+			compilerOptions.getLocalWorkersMem());
+		getLogger().info("Compiling {} GWT permutations with {} local workers", permutations.size(),
+			reservation.getWorkers());
+		try {
+			Map<Permutation, CompileCommandBuilder> builders = new LinkedHashMap<>();
+			for (Permutation permutation : permutations) {
+				CompileCommandBuilder commandBuilder = new CompileCommandBuilder();
+				commandBuilder.setStep(CompileCommandBuilder.Step.COMPILE_PERMS);
+				commandBuilder.setWorkDir(workDir);
+				commandBuilder.setPermutations(Collections.singletonList(permutation.index));
+				commandBuilder.setLocalWorkers(1);
+				commandBuilder.configure(getProject(), compilerOptions, getCompileTask().getSrc(), null,
+					Collections.singletonList(permutation.moduleName));
+				builders.put(permutation, commandBuilder);
+			}
+
+			if (Boolean.TRUE.equals(compilerOptions.getGradleWorker())) {
+				for (Map.Entry<Permutation, CompileCommandBuilder> entry : builders.entrySet()) {
+					entry.getValue().submit(getWorkerExecutor(), "Compile GWT permutation " + entry.getKey());
+				}
+				getWorkerExecutor().await();
+				for (Permutation permutation : permutations) {
+					store(workDir, permutation);
+				}
+			} else {
+				runInParallel(workDir, builders, reservation.getWorkers());
+			}
+		} finally {
+			scheduler.release(reservation);
+		}
+	}
+
+	private void runInParallel(final File workDir, Map<Permutation, CompileCommandBuilder> builders, int concurrency) {
+		Map<Permutation, Future<Integer>> results = new LinkedHashMap<>();
+		// each permutation has a compiler of its own, its duration is known whatever the concurrency
+		final CompileMetrics metrics = new CompileMetrics(concurrency);
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		try {
+			for (Map.Entry<Permutation, CompileCommandBuilder> entry : builders.entrySet()) {
+				final Permutation permutation = entry.getKey();
+				final JavaAction compileAction = entry.getValue().buildJavaAction();
+				results.put(permutation, executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws IOException {
+						metrics.permutationStarted(permutation.moduleName, permutation.index);
+						compileAction.execute(GwtCompilePermsTask.this);
+						compileAction.join();
+						metrics.permutationCompiled(permutation.moduleName, permutation.index);
+						if (compileAction.exitValue() == 0) {
+							store(workDir, permutation);
+						}
+						return compileAction.exitValue();
+					}
+				}));
+			}
+			List<Permutation> failures = Lists.newArrayList();
+			for (Map.Entry<Permutation, Future<Integer>> result : results.entrySet()) {
+				if (result.getValue().get() != 0) {
+					failures.add(result.getKey());
+				}
+			}
+			if (!failures.isEmpty()) {
+				throw new RuntimeException("Failed to compile GWT permutations " + failures);
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
+		} finally {
+			executor.shutdownNow();
+			writeMetrics(metrics);
+		}
+	}
+
+	private void writeMetrics(CompileMetrics metrics) {
+		try {
+			CompileMetrics.writeReports(getReportDir(), Collections.singletonList(metrics));
+		} catch (IOException e) {
+			getLogger().warn("Fail to write the compile metrics in " + getReportDir(), e);
+		}
+	}
+
+	/**
+	 * Moves the compiled permutation from the work dir to the cache.
+	 */
+	private void store(File workDir, Permutation permutation) throws IOException {
+		File compiled = new File(workDir, permutation.moduleName + "/compiler/" + getPermFileName(permutation.index));
+		Files.createDirectories(permutation.cached.getParentFile().toPath());
+		Files.move(compiled.toPath(), permutation.cached.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Keeps the permutations of the most recent precompilations of the module.
+	 */
+	private void trimCache(File moduleCacheDir) {
+		File[] precompilations = moduleCacheDir.listFiles();
+		if (precompilations == null || precompilations.length <= KEPT_PRECOMPILATIONS) {
+			return;
+		}
+		Arrays.sort(precompilations, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return Long.compare(f2.lastModified(), f1.lastModified());
+			}
+		});
+		for (int i = KEPT_PRECOMPILATIONS; i < precompilations.length; i++) {
+			ResourceUtils.deleteDirectory(precompilations[i]);
+		}
+	}
+
+	/**
+	 * @return the index and the count of the shard, 0/1 when not sharded
+	 */
+	static int[] parseShard(String shard) {
+		if (Strings.isNullOrEmpty(shard)) {
+			return new int[] {0, 1};
+		}
+		String[] parts = shard.trim().split("/");
+		try {
+			if (parts.length == 2) {
+				int index = Integer.parseInt(parts[0].trim());
+				int count = Integer.parseInt(parts[1].trim());
+				if (count > 0 && index >= 0 && index < count) {
+					return new int[] {index, count};
+				}
+			}
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+		throw new IllegalArgumentException("Invalid shard " + shard + ", expected index/count such as 0/4");
+	}
+
+	/**
+	 * The permutations of all the modules are dealt in turn to the shards.
+	 *
+	 * @param first the position of the first permutation of the module among all the permutations
+	 * @return the permutations of the module compiled by the shard
+	 */
+	static List<Integer> slice(int first, int permCount, int[] shard) {
+		List<Integer> slice = Lists.newArrayList();
+		for (int i = 0; i < permCount; i++) {
+			if ((first + i) % shard[1] == shard[0]) {
+				slice.add(i);
+			}
+		}
+		return slice;
+	}
+
+	static String hash(File file) throws IOException {
+		Hasher hasher = Hashing.sha256().newHasher();
+		Files.copy(file.toPath(), Funnels.asOutputStream(hasher));
+		return hasher.hash().toString();
+	}
+
+	private static void touch(File dir) {
+		ResourceUtils.ensureDir(dir);
+		dir.setLastModified(System.currentTimeMillis());
+	}
+
+	static int readPermCount(File compilerDir) throws IOException {
+		File permCountFile = new File(compilerDir, PERM_COUNT_FILE);
+		if (!permCountFile.isFile()) {
+			throw new RuntimeException("No precompilation found in " + compilerDir);
+		}
+		return Integer.parseInt(new String(Files.readAllBytes(permCountFile.toPath()), Charsets.UTF_8).trim());
+	}
+
+	public static String getPermFileName(int index) {
+		return "permutation-" + index + ".js";
+	}
+
+	private GwtCompileTask getCompileTask() {
+		return (GwtCompileTask) getProject().getTasks().getByName(GwtCompileTask.NAME);
+	}
+
+	public void configure(final Project project, final PutnamiExtension extention) {
+		dependsOn(GwtPrecompileTask.NAME);
+
+		ConventionMapping mapping = ((IConventionAware) this).getConventionMapping();
+
+		mapping.map("modules", new Callable<List<String>>() {
+			@Override
+			public List<String> call()  {
+				return getCompileTask().getModules();
+			}
+		});
+		mapping.map("precompileDir", new Callable<File>() {
+			@Override
+			public File call()  {
+				Object precompileDir = project.findProperty(PRECOMPILE_DIR_PROPERTY);
+				if (precompileDir != null) {
+					return project.file(precompileDir);
+				}
+				return ((GwtPrecompileTask) project.getTasks().getByName(GwtPrecompileTask.NAME)).getWorkDir();
+			}
+		});
+		mapping.map("permsDir", new Callable<File>() {
+			@Override
+			public File call()  {
+				return new File(project.getBuildDir(), "putnami/split/perms");
+			}
+		});
+		mapping.map("reportDir", new Callable<File>() {
+			@Override
+			public File call()  {
+				return new File(project.getBuildDir(), "putnami/split/reports");
+			}
+		});
+		mapping.map("cacheDir", new Callable<File>() {
+			@Override
+			public File call()  {
+				return new File(project.getBuildDir(), "putnami/perm-cache");
+			}
+		});
+		mapping.map("classpath", new Callable<FileCollection>() {
+			@Override
+			public FileCollection call()  {
+				return getCompileTask().getClasspath();
+			}
+		});
+		mapping.map("gwtVersion", new Callable<String>() {
+			@Override
+			public String call()  {
+				return extention.getGwtVersion();
+			}
+		});
+		mapping.map("shard", new Callable<String>() {
+			@Override
+			public String call()  {
+				Object shardProperty = project.findProperty(SHARD_PROPERTY);
+				return shardProperty == null ? null : shardProperty.toString();
+			}
+		});
+	}
+
+	@Input
+	public List<String> getModules() {
+		return modules;
+	}
+
+	@InputDirectory
+	@PathSensitive(PathSensitivity.RELATIVE)
+	public File getPrecompileDir() {
+		return precompileDir;
+	}
+
+	@OutputDirectory
+	public File getPermsDir() {
+		return permsDir;
+	}
+
+	/**
+	 * The timings of the permutations compiled locally, restored with the permutations they
+	 * describe when the outputs come from the build cache.
+	 */
+	@OutputDirectory
+	public File getReportDir() {
+		return reportDir;
+	}
+
+	@Internal
+	public File getCacheDir() {
+		return cacheDir;
+	}
+
+	@Classpath
+	public FileCollection getClasspath() {
+		return classpath;
+	}
+
+	@Input
+	public String getGwtVersion() {
+		return gwtVersion;
+	}
+
+	@Input
+	@Optional
+	public String getShard() {
+		return shard;
+	}
+
+	private static final class Permutation {
+		private final String module;
+		private final String moduleName;
+		private final int index;
+		private final File precompilation;
+		private final String precompilationHash;
+		private final File cached;
+
+		private Permutation(String module, String moduleName, int index, File precompilation,
+			String precompilationHash, File cached) {
+			this.module = module;
+			this.moduleName = moduleName;
+			this.index = index;
+			this.precompilation = precompilation;
+			this.precompilationHash = precompilationHash;
+			this.cached = cached;
+		}
+
+		@Override
+		public String toString() {
+			return module + "#" + index;
+		}
+	}
+}
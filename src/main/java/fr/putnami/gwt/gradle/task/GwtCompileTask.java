@@ -26,31 +26,59 @@ import org.gradle.api.internal.IConventionAware;
 import org.gradle.api.internal.file.UnionFileCollection;
 import org.gradle.api.plugins.JavaPlugin;
 import org.gradle.api.plugins.JavaPluginConvention;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.SourceSet;
 import org.gradle.api.tasks.TaskAction;
 
+import java.io.Closeable;
 import java.io.File;
-import java.lang.management.ManagementFactory;
-import java.lang.management.OperatingSystemMXBean;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import fr.putnami.gwt.gradle.PwtLibPlugin;
 import fr.putnami.gwt.gradle.action.JavaAction;
 import fr.putnami.gwt.gradle.extension.CompilerOption;
 import fr.putnami.gwt.gradle.extension.PutnamiExtension;
 import fr.putnami.gwt.gradle.helper.CompileCommandBuilder;
+import fr.putnami.gwt.gradle.helper.CompileMetrics;
+import fr.putnami.gwt.gradle.helper.LocalWorkersScheduler;
+import fr.putnami.gwt.gradle.helper.LocalWorkersScheduler.Reservation;
+import fr.putnami.gwt.gradle.helper.UnitCache;
+import fr.putnami.gwt.gradle.util.ResourceUtils;
 
+@CacheableTask
 public class GwtCompileTask extends AbstractTask {
 
 	public static final String NAME = "gwtCompile";
 	public static final String GWT_SOURCE_CONFIG = "gwtSource";
+	public static final String PROFILE_PROPERTY = "putnami.profile";
+	/** Compiler output of a gradle worker, read for the compile metrics. */
+	private static final String OUTPUT_LOG = "compile-output.log";
 
 	private List<String> modules;
 	private File war;
+	private File extra;
+	private File deploy;
+	private File reportDir;
 	private FileCollection src;
+	private FileCollection classpath;
+	private String gwtVersion;
 
 	public GwtCompileTask() {
 		setDescription("Compile the GWT modules");
@@ -59,31 +87,195 @@ public class GwtCompileTask extends AbstractTask {
 	}
 
 	@TaskAction
-	public void exec() {
+	public void exec() throws Exception {
 
 		PutnamiExtension putnami = getProject().getExtensions().getByType(PutnamiExtension.class);
-		CompilerOption compilerOptions = putnami.getCompile();
-		if (!Strings.isNullOrEmpty(putnami.getSourceLevel()) &&
-			Strings.isNullOrEmpty(compilerOptions.getSourceLevel())) {
-			compilerOptions.setSourceLevel(putnami.getSourceLevel());
+		CompilerOption compilerOptions = getCompilerOptions(putnami);
+		if (compilerOptions.getProfile() != null) {
+			getLogger().info("Using the {} compile profile", compilerOptions.getProfile());
 		}
 
-		CompileCommandBuilder commandBuilder = new CompileCommandBuilder();
-		commandBuilder.configure(getProject(), compilerOptions, getSrc(), getWar(), getModules());
-		JavaAction compileAction = commandBuilder.buildJavaAction();
-		compileAction.execute(this);
-		compileAction.join();
-		if (compileAction.exitValue() != 0) {
-			throw new RuntimeException("Failed to compile GWT modules");
+		int requestedWorkers = compilerOptions.getLocalWorkers() != null
+			? compilerOptions.getLocalWorkers() : Runtime.getRuntime().availableProcessors();
+		LocalWorkersScheduler scheduler = LocalWorkersScheduler.get();
+		Reservation reservation = scheduler.reserve(requestedWorkers, compilerOptions.getLocalWorkersMem());
+		getLogger().info("Reserved {} local workers ({} MB, {})", reservation.getWorkers(), reservation.getMemory(),
+			compilerOptions.getWorkerMode());
+		try (Closeable unitCacheLease = UnitCache.of(getProject(), compilerOptions.getSourceLevel()).acquire()) {
+			if (Boolean.TRUE.equals(compilerOptions.getParallelModules()) && getModules().size() > 1) {
+				compileModulesInParallel(compilerOptions, reservation.getWorkers());
+			} else {
+				CompileCommandBuilder commandBuilder = new CompileCommandBuilder();
+				commandBuilder.setLocalWorkers(reservation.getWorkers());
+				commandBuilder.configure(getProject(), compilerOptions, getSrc(), getWar(), getModules());
+				if (Boolean.TRUE.equals(compilerOptions.getGradleWorker())) {
+					File outputLog = new File(compilerOptions.getWorkDir(), OUTPUT_LOG);
+					outputLog.delete();
+					CompileMetrics metrics = new CompileMetrics(reservation.getWorkers());
+					commandBuilder.submit(getWorkerExecutor(), "Compile GWT modules " + getModules(), outputLog);
+					try {
+						getWorkerExecutor().await();
+					} finally {
+						readOutputLog(metrics, outputLog);
+						writeMetrics(Collections.singletonList(metrics));
+					}
+				} else {
+					JavaAction compileAction = commandBuilder.buildJavaAction();
+					CompileMetrics metrics = new CompileMetrics(reservation.getWorkers());
+					compileAction.addOutputListener(metrics);
+					compileAction.execute(this);
+					compileAction.join();
+					writeMetrics(Collections.singletonList(metrics));
+					if (compileAction.exitValue() != 0) {
+						throw new RuntimeException("Failed to compile GWT modules");
+					}
+				}
+			}
+		} finally {
+			scheduler.release(reservation);
+		}
+	}
+
+	/**
+	 * Compiles each module in its own unit directory, sharing the reserved workers between the units,
+	 * then merges the unit outputs.
+	 */
+	private void compileModulesInParallel(CompilerOption compilerOptions, int workers) throws IOException {
+		List<String> modules = getModules();
+		int concurrency = Math.min(modules.size(), workers);
+		if (!Boolean.TRUE.equals(compilerOptions.getGradleWorker())
+			&& (Boolean.TRUE.equals(compilerOptions.getDaemon()) || Boolean.FALSE.equals(compilerOptions.getFork()))) {
+			// the daemon serves one compilation at a time, the in process runs are serialized
+			getLogger().lifecycle("The {} runs one compilation at a time, the GWT modules are compiled one after the other",
+				Boolean.TRUE.equals(compilerOptions.getDaemon()) ? "compiler daemon" : "in process compiler");
+			concurrency = 1;
+		}
+		int unitWorkers = Math.max(1, workers / concurrency);
+		File unitsDir = new File(compilerOptions.getWorkDir(), "units");
+		getLogger().info("Compiling {} GWT modules, {} at a time with {} local workers each", modules.size(),
+			concurrency, unitWorkers);
+
+		Map<String, CompileCommandBuilder> builders = new LinkedHashMap<>();
+		for (String module : modules) {
+			File unitDir = new File(unitsDir, module);
+			ResourceUtils.deleteDirectory(unitDir);
+			CompileCommandBuilder commandBuilder = new CompileCommandBuilder();
+			commandBuilder.setUnitDir(unitDir);
+			commandBuilder.setLocalWorkers(unitWorkers);
+			commandBuilder.configure(getProject(), compilerOptions, getSrc(), getWar(),
+				Collections.singletonList(module));
+			builders.put(module, commandBuilder);
+		}
+
+		if (Boolean.TRUE.equals(compilerOptions.getGradleWorker())) {
+			Map<File, CompileMetrics> metrics = new LinkedHashMap<>();
+			for (Map.Entry<String, CompileCommandBuilder> entry : builders.entrySet()) {
+				File outputLog = new File(new File(unitsDir, entry.getKey()), OUTPUT_LOG);
+				metrics.put(outputLog, new CompileMetrics(unitWorkers));
+				entry.getValue().submit(getWorkerExecutor(), "Compile GWT module " + entry.getKey(), outputLog);
+			}
+			try {
+				getWorkerExecutor().await();
+			} finally {
+				for (Map.Entry<File, CompileMetrics> entry : metrics.entrySet()) {
+					readOutputLog(entry.getValue(), entry.getKey());
+				}
+				writeMetrics(new ArrayList<>(metrics.values()));
+			}
+		} else {
+			runInParallel(builders, concurrency, unitWorkers);
+		}
+
+		for (String module : modules) {
+			File unitDir = new File(unitsDir, module);
+			ResourceUtils.copyDirectory(new File(unitDir, "war"), getWar());
+			ResourceUtils.copyDirectory(new File(unitDir, "deploy"), compilerOptions.getDeploy());
+			ResourceUtils.copyDirectory(new File(unitDir, "extra"), compilerOptions.getExtra());
+		}
+	}
+
+	private void runInParallel(Map<String, CompileCommandBuilder> builders, int concurrency, int unitWorkers) {
+		Map<String, Future<Integer>> results = new LinkedHashMap<>();
+		List<CompileMetrics> metrics = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		try {
+			for (Map.Entry<String, CompileCommandBuilder> entry : builders.entrySet()) {
+				final JavaAction compileAction = entry.getValue().buildJavaAction();
+				CompileMetrics unitMetrics = new CompileMetrics(unitWorkers);
+				compileAction.addOutputListener(unitMetrics);
+				metrics.add(unitMetrics);
+				results.put(entry.getKey(), executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						compileAction.execute(GwtCompileTask.this);
+						compileAction.join();
+						return compileAction.exitValue();
+					}
+				}));
+			}
+			List<String> failures = new ArrayList<>();
+			for (Map.Entry<String, Future<Integer>> result : results.entrySet()) {
+				if (result.getValue().get() != 0) {
+					failures.add(result.getKey());
+				}
+			}
+			writeMetrics(metrics);
+			if (!failures.isEmpty()) {
+				throw new RuntimeException("Failed to compile GWT modules " + failures);
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
+		} finally {
+			executor.shutdownNow();
 		}
+	}
+
+	/**
+	 * The compiler options, the profile is applied once the project is evaluated.
+	 */
+	CompilerOption getCompilerOptions(PutnamiExtension putnami) {
+		return putnami.getCompile();
+	}
+
+	/**
+	 * Applies the profile to the compiler options, the putnami.profile project property takes
+	 * precedence over the profile of the extension. Called once the project is evaluated.
+	 */
+	public static void applyProfile(Project project, PutnamiExtension putnami) {
+		CompilerOption options = putnami.getCompile();
+		Object profile = project.findProperty(PROFILE_PROPERTY);
+		if (profile != null) {
+			options.setProfile(profile.toString());
+		}
+		options.applyProfile();
+		if (!Strings.isNullOrEmpty(putnami.getSourceLevel()) && Strings.isNullOrEmpty(options.getSourceLevel())) {
+			options.setSourceLevel(putnami.getSourceLevel());
+		}
+	}
+
+	private void readOutputLog(CompileMetrics metrics, File outputLog) {
+		if (!outputLog.isFile()) {
+			return;
+		}
+		try {
+			metrics.readOutputLog(outputLog);
+		} catch (IOException e) {
+			getLogger().warn("Fail to read the compiler output in " + outputLog, e);
+		}
+	}
 
-		getProject().getTasks().getByName(GwtCheckTask.NAME).setEnabled(false);
+	private void writeMetrics(List<CompileMetrics> metrics) {
+		File reportDir = getReportDir();
+		try {
+			CompileMetrics.writeReports(reportDir, metrics);
+		} catch (IOException e) {
+			getLogger().warn("Fail to write the compile metrics in " + reportDir, e);
+		}
 	}
 
 	public void configure(final Project project, final PutnamiExtension extention) {
 		final CompilerOption options = extention.getCompile();
 		options.init(project);
-		options.setLocalWorkers(evalWorkers(options));
 		
 		final FileCollection sourceJars = new UnionFileCollection();
 
@@ -113,12 +305,48 @@ public class GwtCompileTask extends AbstractTask {
 				return options.getWar();
 			}
 		});
+		mapping.map("extra", new Callable<File>() {
+			@Override
+			public File call()  {
+				return options.getExtra();
+			}
+		});
+		mapping.map("deploy", new Callable<File>() {
+			@Override
+			public File call()  {
+				return options.getDeploy();
+			}
+		});
+		mapping.map("reportDir", new Callable<File>() {
+			@Override
+			public File call()  {
+				return new File(project.getBuildDir(), "putnami/reports");
+			}
+		});
 		mapping.map("src", new Callable<FileCollection>() {
 			@Override
 			public FileCollection call()  {
 				return sources;
 			}
 		});
+		mapping.map("classpath", new Callable<FileCollection>() {
+			@Override
+			public FileCollection call()  {
+				FileCollection result = project.getConfigurations().getByName(JavaPlugin.COMPILE_CLASSPATH_CONFIGURATION_NAME)
+					.plus(project.getConfigurations().getByName(PwtLibPlugin.CONF_GWT_SDM));
+				Configuration gwtSource = project.getConfigurations().findByName(GWT_SOURCE_CONFIG);
+				if (gwtSource != null) {
+					result = result.plus(gwtSource);
+				}
+				return result;
+			}
+		});
+		mapping.map("gwtVersion", new Callable<String>() {
+			@Override
+			public String call()  {
+				return extention.getGwtVersion();
+			}
+		});
 	}
 
 	private void addSourceSet(FileCollection sources, FileCollection sourceJars, Project project, String sourceSetName) {
@@ -129,27 +357,29 @@ public class GwtCompileTask extends AbstractTask {
 			.add(project.files(sourceSet.getAllSource().getSrcDirs()));
 	}
 
-	private int evalWorkers(CompilerOption options) {
-		long workers = Runtime.getRuntime().availableProcessors();
-		OperatingSystemMXBean osMBean = ManagementFactory.getOperatingSystemMXBean();
-		if (osMBean instanceof com.sun.management.OperatingSystemMXBean) {
-			com.sun.management.OperatingSystemMXBean sunOsMBean = (com.sun.management.OperatingSystemMXBean) osMBean;
-			long memPerWorker = 1024L * 1024L * options.getLocalWorkersMem();
-			long nbFreeMemInGb = sunOsMBean.getFreePhysicalMemorySize() / memPerWorker;
+	@OutputDirectory
+	public File getWar() {
+		return war;
+	}
 
-			if (nbFreeMemInGb < workers) {
-				workers = nbFreeMemInGb;
-			}
-			if (workers < 1) {
-				workers = 1;
-			}
-		}
-		return (int) workers;
+	@OutputDirectory
+	public File getExtra() {
+		return extra;
 	}
 
 	@OutputDirectory
-	public File getWar() {
-		return war;
+	@Optional
+	public File getDeploy() {
+		return deploy;
+	}
+
+	/**
+	 * The compile metrics, restored with the outputs they describe when the outputs come from the
+	 * build cache.
+	 */
+	@OutputDirectory
+	public File getReportDir() {
+		return reportDir;
 	}
 
 	@Input
@@ -158,7 +388,53 @@ public class GwtCompileTask extends AbstractTask {
 	}
 
 	@InputFiles
+	@PathSensitive(PathSensitivity.RELATIVE)
 	public FileCollection getSrc() {
 		return src;
 	}
+
+	@Classpath
+	public FileCollection getClasspath() {
+		return classpath;
+	}
+
+	@Input
+	public String getGwtVersion() {
+		return gwtVersion;
+	}
+
+	/**
+	 * The compiler options changing the compiler output. Paths, log level and workers are left out
+	 * so that the outputs can be shared between machines and checkouts.
+	 */
+	@Input
+	public Map<String, String> getCompilerSettings() {
+		PutnamiExtension putnami = getProject().getExtensions().getByType(PutnamiExtension.class);
+		CompilerOption options = getCompilerOptions(putnami);
+		String sourceLevel = Strings.isNullOrEmpty(options.getSourceLevel())
+			? putnami.getSourceLevel() : options.getSourceLevel();
+
+		Map<String, String> settings = new LinkedHashMap<>();
+		settings.put("sourceLevel", String.valueOf(sourceLevel));
+		settings.put("strict", String.valueOf(options.getStrict()));
+		settings.put("failOnError", String.valueOf(options.getFailOnError()));
+		settings.put("draftCompile", String.valueOf(options.getDraftCompile()));
+		settings.put("optimize", String.valueOf(options.getOptimize()));
+		settings.put("style", String.valueOf(options.getStyle()));
+		settings.put("compileReport", String.valueOf(options.getCompileReport()));
+		settings.put("incremental", String.valueOf(options.getIncremental()));
+		settings.put("checkAssertions", String.valueOf(options.getCheckAssertions()));
+		settings.put("checkCasts", String.valueOf(options.getCheckCasts()));
+		settings.put("enforceStrictResources", String.valueOf(options.getEnforceStrictResources()));
+		settings.put("classMetadata", String.valueOf(options.getClassMetadata()));
+		settings.put("overlappingSourceWarnings", String.valueOf(options.getOverlappingSourceWarnings()));
+		settings.put("saveSource", String.valueOf(options.getSaveSource()));
+		settings.put("methodNameDisplayMode", String.valueOf(options.getMethodNameDisplayMode()));
+		settings.put("jsInteropMode", String.valueOf(options.getJsInteropMode()));
+		settings.put("generateJsInteropExports", String.valueOf(options.getGenerateJsInteropExports()));
+		settings.put("collapseAll", String.valueOf(Boolean.TRUE.equals(options.getCollapseAll())));
+		settings.put("collapseProperties", String.valueOf(options.getCollapseProperties()));
+		settings.put("extraArgs", String.valueOf(options.getExtraArgs()));
+		return settings;
+	}
 }
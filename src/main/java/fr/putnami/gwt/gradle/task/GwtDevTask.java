@@ -31,6 +31,7 @@ import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.SourceSet;
 import org.gradle.api.tasks.TaskAction;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
@@ -44,6 +45,9 @@ import fr.putnami.gwt.gradle.extension.DevOption;
 import fr.putnami.gwt.gradle.extension.PutnamiExtension;
 import fr.putnami.gwt.gradle.helper.CodeServerBuilder;
 import fr.putnami.gwt.gradle.helper.JettyServerBuilder;
+import fr.putnami.gwt.gradle.helper.UnitCache;
+import fr.putnami.gwt.gradle.util.DirectorySync;
+import fr.putnami.gwt.gradle.util.DirectorySyncWatcher;
 import fr.putnami.gwt.gradle.util.ResourceUtils;
 
 public class GwtDevTask extends AbstractTask {
@@ -63,7 +67,7 @@ public class GwtDevTask extends AbstractTask {
 	public void exec() throws Exception {
 		PutnamiExtension putnami = getProject().getExtensions().getByType(PutnamiExtension.class);
 		DevOption sdmOption = putnami.getDev();
-		createWarExploded(sdmOption);
+		DirectorySync warSync = createWarExploded(sdmOption);
 		ResourceUtils.ensureDir(sdmOption.getWar());
 		ResourceUtils.ensureDir(sdmOption.getWorkDir());
 		jettyConf = new File(getProject().getBuildDir(), "putnami/conf/jetty-run-conf.xml");
@@ -71,68 +75,82 @@ public class GwtDevTask extends AbstractTask {
 				.put("__WAR_FILE__", sdmOption.getWar().getAbsolutePath())
 				.build();
 		ResourceUtils.copy("/stub.jetty-conf.xml", jettyConf, model);
-		JavaAction sdm = execSdm();
-		if (sdm.isAlive()) {
-			JavaAction jetty = execJetty();
-			jetty.join();
+		try (Closeable unitCacheLease = UnitCache.of(getProject(), sdmOption.getSourceLevel()).acquire()) {
+			JavaAction sdm = execSdm();
+			if (sdm.isAlive()) {
+				DirectorySyncWatcher warWatcher = null;
+				if (Boolean.TRUE.equals(sdmOption.getLiveSync())) {
+					warWatcher = new DirectorySyncWatcher(warSync, getLogger());
+					warWatcher.start();
+				}
+				try {
+					JavaAction jetty = execJetty();
+					jetty.join();
+				} finally {
+					if (warWatcher != null) {
+						warWatcher.close();
+					}
+				}
+			}
 		}
 	}
 
-	private void createWarExploded(DevOption sdmOption) throws IOException {
+	private DirectorySync createWarExploded(DevOption sdmOption) throws IOException {
 		WarPluginConvention warConvention = getProject().getConvention().getPlugin(WarPluginConvention.class);
 		final JavaPluginConvention javaConvention = getProject().getConvention().getPlugin(JavaPluginConvention.class);
 
 		File warDir = sdmOption.getWar();
-
-		ResourceUtils.copyDirectory(warConvention.getWebAppDir(), warDir);
+		final DirectorySync warSync = new DirectorySync(warDir,
+			new File(getProject().getBuildDir(), "putnami/conf/war-dev.manifest"));
 
 		if (Boolean.TRUE.equals(sdmOption.getNoServer())) {
-			File webInfDir = ResourceUtils.ensureDir(new File(warDir, "WEB-INF"));
-			ResourceUtils.deleteDirectory(webInfDir);
+			warSync.addDirectory(warConvention.getWebAppDir(), "", "WEB-INF");
+			warSync.sync();
+			ResourceUtils.deleteDirectory(new File(warDir, "WEB-INF"));
 		} else {
+			warSync.addDirectory(warConvention.getWebAppDir(), "");
+
 			SourceSet mainSourceSet = javaConvention.getSourceSets().getByName("main");
-			final File classesDir = ResourceUtils.ensureDir(new File(warDir, "WEB-INF/classes"));
+			ResourceUtils.ensureDir(new File(warDir, "WEB-INF/classes"));
 			for (File file : mainSourceSet.getResources().getSrcDirs()) {
-				ResourceUtils.copyDirectory(file, classesDir);
+				warSync.addDirectory(file, "WEB-INF/classes");
 			}
 
 			for (File f: mainSourceSet.getOutput().getClassesDirs()) {
-				ResourceUtils.copyDirectory(f, classesDir);
+				warSync.addDirectory(f, "WEB-INF/classes");
 			}
 
 			for (File file : mainSourceSet.getOutput().getFiles()) {
 				if (file.exists() && file.isFile()) {
-					ResourceUtils.copy(file, new File(classesDir, file.getName()));
+					warSync.addFile(file, "WEB-INF/classes/" + file.getName());
 				}
 			}
-			File libDir = ResourceUtils.ensureDir(new File(warDir, "WEB-INF/lib"));
+			ResourceUtils.ensureDir(new File(warDir, "WEB-INF/lib"));
 			for (File file : mainSourceSet.getRuntimeClasspath()) {
 				if (file.exists() && file.isFile()) {
-					ResourceUtils.copy(file, new File(libDir, file.getName()));
+					warSync.addFile(file, "WEB-INF/lib/" + file.getName(), sdmOption.getWarLinkMode());
 				}
 			}
-			
+
 			Configuration config = getProject().getConfigurations().getByName(mainSourceSet.getRuntimeClasspathConfigurationName());
 			config.getAllDependencies().withType(ProjectDependency.class, new Action<ProjectDependency>() {
 				@Override
 				public void execute(ProjectDependency dep) {
 					JavaPluginConvention depConvention = dep.getDependencyProject().getConvention().getPlugin(JavaPluginConvention.class);
 					SourceSet depSourceSet = depConvention.getSourceSets().getByName("main");
-					try {
-						for (File file : depSourceSet.getOutput().getClassesDirs()) {
-							System.out.println("Copying " + file + " from classes dir to classes");
-							ResourceUtils.copyDirectory(file, classesDir);
-						}
-						for (File file : depSourceSet.getResources().getSourceDirectories()) {
-							System.out.println("Copying " + file + " from resources dir to classes");
-							ResourceUtils.copyDirectory(file, classesDir);
-						}
-					} catch (IOException e) {
-						throw new RuntimeException(e);
+					for (File file : depSourceSet.getOutput().getClassesDirs()) {
+						warSync.addDirectory(file, "WEB-INF/classes");
+					}
+					for (File file : depSourceSet.getResources().getSourceDirectories()) {
+						warSync.addDirectory(file, "WEB-INF/classes");
 					}
 				}
 			});
+			warSync.sync();
 		}
+		getLogger().info("Dev war synchronized: {} copied, {} deleted, {} unchanged",
+			warSync.getCopied(), warSync.getDeleted(), warSync.getUnchanged());
+		return warSync;
 	}
 
 	private JavaAction execJetty() {
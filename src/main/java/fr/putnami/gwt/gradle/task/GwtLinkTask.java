@@ -0,0 +1,296 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.task;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.gradle.api.Project;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.internal.ConventionMapping;
+import org.gradle.api.internal.IConventionAware;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+
+import fr.putnami.gwt.gradle.action.JavaAction;
+import fr.putnami.gwt.gradle.extension.CompilerOption;
+import fr.putnami.gwt.gradle.extension.PutnamiExtension;
+import fr.putnami.gwt.gradle.extension.WarLinkMode;
+import fr.putnami.gwt.gradle.helper.CompileCommandBuilder;
+import fr.putnami.gwt.gradle.util.DirectorySync;
+
+/**
+ * Last step of the split compilation, links the precompilations and the compiled permutations into
+ * the war.
+ * <p>
+ * The permutations of sharded builds are merged when their output dirs are given by the
+ * putnami.shardDirs project property (separated by commas). The shards must have compiled the
+ * same precompilation and cover all the permutations, the precompilation shipped by the first shard
+ * is linked. When several shards provide a permutation, the one of the first shard dir is linked.
+ * </p>
+ */
+@CacheableTask
+public class GwtLinkTask extends AbstractTask {
+
+	public static final String NAME = "gwtLink";
+	public static final String SHARD_DIRS_PROPERTY = "putnami.shardDirs";
+
+	private List<String> modules;
+	private List<File> permsDirs;
+	private File war;
+	private File extra;
+	private FileCollection src;
+	private FileCollection classpath;
+	private String gwtVersion;
+
+	public GwtLinkTask() {
+		setDescription("Link the compiled permutations of the GWT modules");
+	}
+
+	@TaskAction
+	public void exec() throws Exception {
+		PutnamiExtension putnami = getProject().getExtensions().getByType(PutnamiExtension.class);
+		CompilerOption compilerOptions = getCompileTask().getCompilerOptions(putnami);
+
+		// The linker expects the precompilation and the permutations in the same work dir.
+		File workDir = new File(getTemporaryDir(), "work");
+		DirectorySync workSync = new DirectorySync(workDir, new File(getTemporaryDir(), "work.manifest"));
+		List<Properties> shards = Lists.newArrayList();
+		for (File permsDir : getPermsDirs()) {
+			shards.add(readShard(permsDir));
+		}
+		for (String module : getModules()) {
+			String moduleName = CompileCommandBuilder.getModuleName(compilerOptions, module);
+			String precompilationHash = checkPrecompilation(module, moduleName, shards, getPermsDirs());
+			File precompileDir = new File(getPermsDirs().get(0), moduleName + "/" + GwtCompilePermsTask.PRECOMPILE_DIR);
+			File compilerDir = new File(precompileDir, "compiler");
+			File precompilation = new File(compilerDir, GwtCompilePermsTask.PRECOMPILATION_FILE);
+			if (!precompilation.isFile() || !precompilationHash.equals(GwtCompilePermsTask.hash(precompilation))) {
+				throw new RuntimeException("The precompilation of " + module + " shipped in " + getPermsDirs().get(0)
+					+ " is missing or altered");
+			}
+			workSync.addDirectory(precompileDir, moduleName, WarLinkMode.HARDLINK);
+
+			Map<Integer, File> permutations = collectPermutations(moduleName, shards, getPermsDirs());
+			for (Map.Entry<Integer, File> permutation : permutations.entrySet()) {
+				String permFileName = GwtCompilePermsTask.getPermFileName(permutation.getKey());
+				workSync.addFile(new File(permutation.getValue(), moduleName + "/" + permFileName),
+					moduleName + "/compiler/" + permFileName, WarLinkMode.HARDLINK);
+			}
+			int permCount = GwtCompilePermsTask.readPermCount(compilerDir);
+			List<Integer> missing = Lists.newArrayList();
+			for (int i = 0; i < permCount; i++) {
+				if (!permutations.containsKey(i)) {
+					missing.add(i);
+				}
+			}
+			if (!missing.isEmpty()) {
+				throw new RuntimeException("Missing the permutations " + missing + " of " + module + " in " + getPermsDirs());
+			}
+		}
+		workSync.sync();
+
+		CompileCommandBuilder commandBuilder = new CompileCommandBuilder();
+		commandBuilder.setStep(CompileCommandBuilder.Step.LINK);
+		commandBuilder.setWorkDir(workDir);
+		commandBuilder.configure(getProject(), compilerOptions, getSrc(), getWar(), getModules());
+		if (Boolean.TRUE.equals(compilerOptions.getGradleWorker())) {
+			commandBuilder.submit(getWorkerExecutor(), "Link GWT modules " + getModules());
+			getWorkerExecutor().await();
+		} else {
+			JavaAction linkAction = commandBuilder.buildJavaAction();
+			linkAction.execute(this);
+			linkAction.join();
+			if (linkAction.exitValue() != 0) {
+				throw new RuntimeException("Failed to link GWT modules");
+			}
+		}
+	}
+
+	/**
+	 * Checks that all the shards compiled the module from the same precompilation.
+	 *
+	 * @return the hash of the precompilation
+	 */
+	static String checkPrecompilation(String module, String moduleName, List<Properties> shards, List<File> permsDirs) {
+		String precompilationHash = shards.get(0).getProperty(moduleName + ".precompilation");
+		for (int i = 0; i < shards.size(); i++) {
+			Properties shard = shards.get(i);
+			String shardHash = shard.getProperty(moduleName + ".precompilation");
+			if (shardHash == null) {
+				throw new RuntimeException("No permutation of " + module + " in " + permsDirs.get(i));
+			}
+			if (!shardHash.equals(precompilationHash)) {
+				throw new RuntimeException("The permutations of " + permsDirs.get(i) + " (shard "
+					+ shard.getProperty("shard") + ") and of " + permsDirs.get(0) + " (shard "
+					+ shards.get(0).getProperty("shard") + ") are compiled from different precompilations of " + module);
+			}
+		}
+		return precompilationHash;
+	}
+
+	/**
+	 * @return the folder of each compiled permutation of the module, the first shard providing it wins
+	 */
+	static Map<Integer, File> collectPermutations(String moduleName, List<Properties> shards, List<File> permsDirs) {
+		Map<Integer, File> permutations = Maps.newTreeMap();
+		for (int i = 0; i < shards.size(); i++) {
+			for (String permutation : Splitter.on(',').omitEmptyStrings().split(
+				Strings.nullToEmpty(shards.get(i).getProperty(moduleName + ".permutations")))) {
+				Integer index = Integer.valueOf(permutation.trim());
+				if (!permutations.containsKey(index)) {
+					permutations.put(index, permsDirs.get(i));
+				}
+			}
+		}
+		return permutations;
+	}
+
+	private static Properties readShard(File permsDir) throws IOException {
+		File shardFile = new File(permsDir, GwtCompilePermsTask.SHARD_FILE);
+		if (!shardFile.isFile()) {
+			throw new RuntimeException("No compiled permutations found in " + permsDir);
+		}
+		Properties shard = new Properties();
+		try (Reader reader = Files.newBufferedReader(shardFile.toPath(), Charsets.UTF_8)) {
+			shard.load(reader);
+		}
+		return shard;
+	}
+
+	private GwtCompileTask getCompileTask() {
+		return (GwtCompileTask) getProject().getTasks().getByName(GwtCompileTask.NAME);
+	}
+
+	public void configure(final Project project, final PutnamiExtension extention) {
+		dependsOn(GwtCompilePermsTask.NAME);
+
+		final CompilerOption options = extention.getCompile();
+		ConventionMapping mapping = ((IConventionAware) this).getConventionMapping();
+
+		mapping.map("modules", new Callable<List<String>>() {
+			@Override
+			public List<String> call()  {
+				return getCompileTask().getModules();
+			}
+		});
+		mapping.map("permsDirs", new Callable<List<File>>() {
+			@Override
+			public List<File> call()  {
+				Object shardDirs = project.findProperty(SHARD_DIRS_PROPERTY);
+				if (shardDirs == null) {
+					return Collections.singletonList(
+						((GwtCompilePermsTask) project.getTasks().getByName(GwtCompilePermsTask.NAME)).getPermsDir());
+				}
+				List<File> dirs = Lists.newArrayList();
+				for (String dir : Splitter.on(',').trimResults().omitEmptyStrings().split(shardDirs.toString())) {
+					dirs.add(project.file(dir));
+				}
+				return dirs;
+			}
+		});
+		mapping.map("war", new Callable<File>() {
+			@Override
+			public File call()  {
+				return options.getWar();
+			}
+		});
+		mapping.map("extra", new Callable<File>() {
+			@Override
+			public File call()  {
+				return options.getExtra();
+			}
+		});
+		mapping.map("src", new Callable<FileCollection>() {
+			@Override
+			public FileCollection call()  {
+				return getCompileTask().getSrc();
+			}
+		});
+		mapping.map("classpath", new Callable<FileCollection>() {
+			@Override
+			public FileCollection call()  {
+				return getCompileTask().getClasspath();
+			}
+		});
+		mapping.map("gwtVersion", new Callable<String>() {
+			@Override
+			public String call()  {
+				return extention.getGwtVersion();
+			}
+		});
+	}
+
+	@Input
+	public List<String> getModules() {
+		return modules;
+	}
+
+	@InputFiles
+	@PathSensitive(PathSensitivity.RELATIVE)
+	public List<File> getPermsDirs() {
+		return permsDirs;
+	}
+
+	@OutputDirectory
+	public File getWar() {
+		return war;
+	}
+
+	@OutputDirectory
+	public File getExtra() {
+		return extra;
+	}
+
+	@InputFiles
+	@PathSensitive(PathSensitivity.RELATIVE)
+	public FileCollection getSrc() {
+		return src;
+	}
+
+	@Classpath
+	public FileCollection getClasspath() {
+		return classpath;
+	}
+
+	@Input
+	public String getGwtVersion() {
+		return gwtVersion;
+	}
+
+	@Input
+	public Map<String, String> getCompilerSettings() {
+		return getCompileTask().getCompilerSettings();
+	}
+}
@@ -0,0 +1,159 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.task;
+
+import org.gradle.api.Project;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.internal.ConventionMapping;
+import org.gradle.api.internal.IConventionAware;
+import org.gradle.api.plugins.JavaPlugin;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import fr.putnami.gwt.gradle.action.JavaAction;
+import fr.putnami.gwt.gradle.extension.CompilerOption;
+import fr.putnami.gwt.gradle.extension.PutnamiExtension;
+import fr.putnami.gwt.gradle.helper.CompileCommandBuilder;
+import fr.putnami.gwt.gradle.helper.UnitCache;
+import fr.putnami.gwt.gradle.util.ResourceUtils;
+
+/**
+ * First step of the split compilation, writes the precompilation of each module and its permutation
+ * count in the work dir.
+ */
+@CacheableTask
+public class GwtPrecompileTask extends AbstractTask {
+
+	public static final String NAME = "gwtPrecompile";
+
+	private List<String> modules;
+	private File workDir;
+	private FileCollection src;
+	private FileCollection classpath;
+	private String gwtVersion;
+
+	public GwtPrecompileTask() {
+		setDescription("Precompile the GWT modules");
+
+		dependsOn(JavaPlugin.COMPILE_JAVA_TASK_NAME, JavaPlugin.PROCESS_RESOURCES_TASK_NAME);
+	}
+
+	@TaskAction
+	public void exec() throws Exception {
+		PutnamiExtension putnami = getProject().getExtensions().getByType(PutnamiExtension.class);
+		CompilerOption compilerOptions = getCompileTask().getCompilerOptions(putnami);
+
+		ResourceUtils.deleteDirectory(getWorkDir());
+		CompileCommandBuilder commandBuilder = new CompileCommandBuilder();
+		commandBuilder.setStep(CompileCommandBuilder.Step.PRECOMPILE);
+		commandBuilder.setWorkDir(getWorkDir());
+		commandBuilder.configure(getProject(), compilerOptions, getSrc(), null, getModules());
+		try (Closeable unitCacheLease = UnitCache.of(getProject(), compilerOptions.getSourceLevel()).acquire()) {
+			if (Boolean.TRUE.equals(compilerOptions.getGradleWorker())) {
+				commandBuilder.submit(getWorkerExecutor(), "Precompile GWT modules " + getModules());
+				getWorkerExecutor().await();
+			} else {
+				JavaAction precompileAction = commandBuilder.buildJavaAction();
+				precompileAction.execute(this);
+				precompileAction.join();
+				if (precompileAction.exitValue() != 0) {
+					throw new RuntimeException("Failed to precompile GWT modules");
+				}
+			}
+		}
+	}
+
+	private GwtCompileTask getCompileTask() {
+		return (GwtCompileTask) getProject().getTasks().getByName(GwtCompileTask.NAME);
+	}
+
+	public void configure(final Project project, final PutnamiExtension extention) {
+		ConventionMapping mapping = ((IConventionAware) this).getConventionMapping();
+
+		mapping.map("modules", new Callable<List<String>>() {
+			@Override
+			public List<String> call()  {
+				return getCompileTask().getModules();
+			}
+		});
+		mapping.map("workDir", new Callable<File>() {
+			@Override
+			public File call()  {
+				return new File(project.getBuildDir(), "putnami/split/precompile");
+			}
+		});
+		mapping.map("src", new Callable<FileCollection>() {
+			@Override
+			public FileCollection call()  {
+				return getCompileTask().getSrc();
+			}
+		});
+		mapping.map("classpath", new Callable<FileCollection>() {
+			@Override
+			public FileCollection call()  {
+				return getCompileTask().getClasspath();
+			}
+		});
+		mapping.map("gwtVersion", new Callable<String>() {
+			@Override
+			public String call()  {
+				return extention.getGwtVersion();
+			}
+		});
+	}
+
+	@OutputDirectory
+	public File getWorkDir() {
+		return workDir;
+	}
+
+	@Input
+	public List<String> getModules() {
+		return modules;
+	}
+
+	@InputFiles
+	@PathSensitive(PathSensitivity.RELATIVE)
+	public FileCollection getSrc() {
+		return src;
+	}
+
+	@Classpath
+	public FileCollection getClasspath() {
+		return classpath;
+	}
+
+	@Input
+	public String getGwtVersion() {
+		return gwtVersion;
+	}
+
+	@Input
+	public Map<String, String> getCompilerSettings() {
+		return getCompileTask().getCompilerSettings();
+	}
+}
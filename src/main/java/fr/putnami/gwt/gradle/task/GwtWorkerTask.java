@@ -0,0 +1,86 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.task;
+
+import com.google.common.base.Strings;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Collections;
+
+import fr.putnami.gwt.gradle.action.JavaAction;
+import fr.putnami.gwt.gradle.daemon.PermutationWorker;
+import fr.putnami.gwt.gradle.extension.CompilerOption;
+import fr.putnami.gwt.gradle.extension.PutnamiExtension;
+import fr.putnami.gwt.gradle.helper.CompileCommandBuilder;
+
+/**
+ * Runs a permutation worker, compiling the permutations sent by the split compilations of the
+ * builds listing it in their remoteWorkers. The worker runs until the build is stopped.
+ */
+public class GwtWorkerTask extends AbstractTask {
+
+	public static final String NAME = "gwtWorker";
+	public static final String PORT_PROPERTY = "putnami.workerPort";
+
+	public GwtWorkerTask() {
+		setDescription("Run a GWT permutation worker");
+	}
+
+	@TaskAction
+	public void exec() throws IOException {
+		PutnamiExtension putnami = getProject().getExtensions().getByType(PutnamiExtension.class);
+		final CompilerOption compilerOptions = putnami.getCompile();
+
+		Object portProperty = getProject().findProperty(PORT_PROPERTY);
+		int port = portProperty != null ? Integer.parseInt(portProperty.toString()) : compilerOptions.getWorkerPort();
+		int threads = compilerOptions.getWorkerThreads() != null
+			? compilerOptions.getWorkerThreads() : Runtime.getRuntime().availableProcessors();
+		String bindAddress = compilerOptions.getWorkerBindAddress();
+		if (Strings.isNullOrEmpty(compilerOptions.getWorkerToken())
+			&& !InetAddress.getByName(bindAddress).isLoopbackAddress()) {
+			if (!Boolean.TRUE.equals(compilerOptions.getWorkerAllowUnauthenticated())) {
+				throw new GradleException("The GWT permutation worker cannot listen on " + bindAddress
+					+ " without workerToken, any host could send it permutations to compile. Set a workerToken, "
+					+ "or workerAllowUnauthenticated = true on a trusted network");
+			}
+			getLogger().warn("The GWT permutation worker listens on {} without workerToken, any host can send it "
+				+ "permutations to compile", bindAddress);
+		}
+
+		PermutationWorker worker = new PermutationWorker(new File(getProject().getBuildDir(), "putnami/worker/" + port),
+			putnami.getGwtVersion(), compilerOptions.getWorkerToken(), threads, new PermutationWorker.Compiler() {
+				@Override
+				public int compile(File workDir, String moduleName, int permutation) {
+					CompileCommandBuilder commandBuilder = new CompileCommandBuilder();
+					commandBuilder.setStep(CompileCommandBuilder.Step.COMPILE_PERMS);
+					commandBuilder.setWorkDir(workDir);
+					commandBuilder.setPermutations(Collections.singletonList(permutation));
+					commandBuilder.setLocalWorkers(1);
+					commandBuilder.configure(getProject(), compilerOptions, getProject().files(), null,
+						Collections.singletonList(moduleName));
+					JavaAction compileAction = commandBuilder.buildJavaAction();
+					compileAction.execute(GwtWorkerTask.this);
+					compileAction.join();
+					return compileAction.exitValue();
+				}
+			}, getLogger());
+		worker.serve(bindAddress, port);
+	}
+}
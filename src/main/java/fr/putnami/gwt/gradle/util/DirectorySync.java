@@ -0,0 +1,324 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.util;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+
+import fr.putnami.gwt.gradle.extension.WarLinkMode;
+
+/**
+ * Mirrors a set of source directories and files into a target directory.
+ * <p>
+ * Only the files whose source, size or modification time changed since the previous synchronization
+ * are copied, and the files that were synchronized previously but are no longer part of the sources
+ * are deleted, with the folders they leave empty. The state of the previous synchronization is kept
+ * in a manifest file, files written in the target directory by someone else are left untouched. A
+ * file which could not be deleted stays in the manifest, its deletion is tried again by the next
+ * synchronization.
+ * </p>
+ */
+public class DirectorySync {
+
+	private final File target;
+	private final File manifest;
+	private final List<Source> sources = Lists.newArrayList();
+
+	private int copied;
+	private int deleted;
+	private int unchanged;
+
+	public DirectorySync(File target, File manifest) {
+		this.target = target;
+		this.manifest = manifest;
+	}
+
+	/**
+	 * Adds the content of the source directory in the targetPath of the target directory. If a file
+	 * is provided by several sources, the last one added wins.
+	 */
+	public DirectorySync addDirectory(File source, String targetPath) {
+		return addDirectory(source, targetPath, (String) null);
+	}
+
+	/**
+	 * Adds the content of the source directory, except the files under the excluded relative path.
+	 */
+	public DirectorySync addDirectory(File source, String targetPath, String excludedPath) {
+		if (source != null) {
+			sources.add(new Source(source, normalize(targetPath), true, normalize(excludedPath), WarLinkMode.COPY));
+		}
+		return this;
+	}
+
+	/**
+	 * Adds the content of the source directory, its files are linked instead of copied, depending on
+	 * the mode.
+	 */
+	public DirectorySync addDirectory(File source, String targetPath, WarLinkMode linkMode) {
+		if (source != null) {
+			sources.add(new Source(source, normalize(targetPath), true, null, linkMode));
+		}
+		return this;
+	}
+
+	public DirectorySync addFile(File source, String targetPath) {
+		return addFile(source, targetPath, WarLinkMode.COPY);
+	}
+
+	/**
+	 * Adds a file which is linked in the target directory instead of copied, depending on the mode.
+	 */
+	public DirectorySync addFile(File source, String targetPath, WarLinkMode linkMode) {
+		if (source != null) {
+			sources.add(new Source(source, normalize(targetPath), false, null, linkMode));
+		}
+		return this;
+	}
+
+	public File getTarget() {
+		return target;
+	}
+
+	/**
+	 * @return the source directories, the source files are not included.
+	 */
+	public List<File> getDirectories() {
+		List<File> directories = Lists.newArrayList();
+		for (Source source : sources) {
+			if (source.directory) {
+				directories.add(source.file);
+			}
+		}
+		return directories;
+	}
+
+	public int getCopied() {
+		return copied;
+	}
+
+	public int getDeleted() {
+		return deleted;
+	}
+
+	public int getUnchanged() {
+		return unchanged;
+	}
+
+	/**
+	 * Computes the target files from the current content of the sources and brings the target
+	 * directory up to date.
+	 */
+	public synchronized void sync() throws IOException {
+		copied = 0;
+		deleted = 0;
+		unchanged = 0;
+
+		Map<String, Source> files = collectFiles();
+		Properties previous = readManifest();
+		Properties current = new Properties();
+
+		for (String path : previous.stringPropertyNames()) {
+			if (!files.containsKey(path)) {
+				File targetFile = new File(target, path);
+				if (targetFile.delete()) {
+					deleted++;
+					deleteEmptyParents(targetFile);
+				} else if (Files.exists(targetFile.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+					current.setProperty(path, previous.getProperty(path));
+				}
+			}
+		}
+
+		// Each target path is transferred once, from the last source providing it, so the transfers
+		// can run concurrently even when several sources are mirrored into the same folder.
+		List<Callable<Void>> transfers = Lists.newArrayList();
+		for (Map.Entry<String, Source> entry : files.entrySet()) {
+			String path = entry.getKey();
+			final Source source = entry.getValue();
+			final File targetFile = new File(target, path);
+			// the source path is part of the state, a file provided by another source is transferred again
+			String state = source.file.length() + ":" + source.file.lastModified() + ":" + source.linkMode + ":"
+				+ source.file.getAbsolutePath();
+			if (targetFile.isFile() && state.equals(previous.getProperty(path))) {
+				unchanged++;
+			} else {
+				transfers.add(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						transfer(source.file, targetFile, source.linkMode);
+						return null;
+					}
+				});
+			}
+			current.setProperty(path, state);
+		}
+		ResourceUtils.runParallel(transfers);
+		copied = transfers.size();
+
+		writeManifest(current);
+	}
+
+	/**
+	 * Deletes the folders left empty by the deletion of the file, up to the target directory. A
+	 * linked folder is left in place.
+	 */
+	private void deleteEmptyParents(File file) {
+		File parent = file.getParentFile();
+		while (parent != null && !parent.equals(target) && !Files.isSymbolicLink(parent.toPath())
+			&& parent.delete()) {
+			parent = parent.getParentFile();
+		}
+	}
+
+	protected void transfer(File source, File targetFile, WarLinkMode linkMode) throws IOException {
+		Path targetPath = targetFile.toPath();
+		Files.createDirectories(targetPath.getParent());
+		// The previous target may be a link, writing through it would alter the linked file.
+		Files.deleteIfExists(targetPath);
+		if (linkMode == WarLinkMode.HARDLINK && link(targetPath, source, false)) {
+			return;
+		}
+		if (linkMode == WarLinkMode.SYMLINK && link(targetPath, source, true)) {
+			return;
+		}
+		ResourceUtils.copy(source, targetFile);
+	}
+
+	private static boolean link(Path targetPath, File source, boolean symbolic) {
+		try {
+			Path sourcePath = source.getAbsoluteFile().toPath();
+			if (symbolic) {
+				Files.createSymbolicLink(targetPath, sourcePath);
+			} else {
+				Files.createLink(targetPath, sourcePath);
+			}
+			return true;
+		} catch (IOException | UnsupportedOperationException | SecurityException e) {
+			return false;
+		}
+	}
+
+	private Map<String, Source> collectFiles() {
+		Map<String, Source> files = Maps.newLinkedHashMap();
+		for (Source source : sources) {
+			if (source.directory) {
+				collectDirectory(source, source.file, source.targetPath, files);
+			} else if (source.file.isFile()) {
+				files.put(source.targetPath, source);
+			}
+		}
+		return files;
+	}
+
+	private void collectDirectory(Source source, File dir, String path, Map<String, Source> files) {
+		File[] children = dir.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			String childPath = path.isEmpty() ? child.getName() : path + "/" + child.getName();
+			if (source.isExcluded(childPath)) {
+				continue;
+			}
+			if (child.isDirectory()) {
+				collectDirectory(source, child, childPath, files);
+			} else {
+				files.put(childPath, new Source(child, childPath, false, null, source.linkMode));
+			}
+		}
+	}
+
+	private Properties readManifest() throws IOException {
+		Properties properties = new Properties();
+		if (manifest.isFile()) {
+			try (InputStream in = new FileInputStream(manifest)) {
+				properties.load(in);
+			}
+		}
+		return properties;
+	}
+
+	/**
+	 * Writes the manifest in a temporary file first, a synchronization interrupted while writing
+	 * leaves the previous manifest.
+	 */
+	private void writeManifest(Properties properties) throws IOException {
+		ResourceUtils.ensureDir(manifest.getParentFile());
+		File tmpFile = File.createTempFile(manifest.getName(), ".tmp", manifest.getAbsoluteFile().getParentFile());
+		try {
+			try (OutputStream out = new FileOutputStream(tmpFile)) {
+				properties.store(out, null);
+			}
+			Files.move(tmpFile.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmpFile.toPath());
+		}
+	}
+
+	private static String normalize(String path) {
+		if (path == null) {
+			return null;
+		}
+		String result = path.replace('\\', '/');
+		while (result.startsWith("/")) {
+			result = result.substring(1);
+		}
+		while (result.endsWith("/")) {
+			result = result.substring(0, result.length() - 1);
+		}
+		return result;
+	}
+
+	private static final class Source {
+		private final File file;
+		private final String targetPath;
+		private final boolean directory;
+		private final String excludedPath;
+		private final WarLinkMode linkMode;
+
+		private Source(File file, String targetPath, boolean directory, String excludedPath, WarLinkMode linkMode) {
+			this.file = file;
+			this.targetPath = targetPath;
+			this.directory = directory;
+			this.excludedPath = excludedPath;
+			this.linkMode = linkMode;
+		}
+
+		private boolean isExcluded(String path) {
+			if (excludedPath == null) {
+				return false;
+			}
+			String relative = targetPath.isEmpty() ? path : path.substring(targetPath.length() + 1);
+			return relative.equals(excludedPath) || relative.startsWith(excludedPath + "/");
+		}
+	}
+}
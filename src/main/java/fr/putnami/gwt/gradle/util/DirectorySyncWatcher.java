@@ -0,0 +1,143 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.util;
+
+import org.gradle.api.logging.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the source directories of a {@link DirectorySync} and synchronizes the target directory
+ * when they change.
+ * <p>
+ * The changes are batched: the synchronization runs once the sources have been quiet for the quiet
+ * period, so that a compilation rewriting many classes triggers a single synchronization.
+ * </p>
+ */
+public class DirectorySyncWatcher implements Closeable {
+
+	private static final long DEFAULT_QUIET_PERIOD = 300;
+	private static final long CLOSE_TIMEOUT = 10000;
+
+	private final DirectorySync sync;
+	private final Logger logger;
+	private final long quietPeriod;
+
+	private WatchService watchService;
+	private Thread thread;
+
+	public DirectorySyncWatcher(DirectorySync sync, Logger logger) {
+		this(sync, logger, DEFAULT_QUIET_PERIOD);
+	}
+
+	public DirectorySyncWatcher(DirectorySync sync, Logger logger, long quietPeriod) {
+		this.sync = sync;
+		this.logger = logger;
+		this.quietPeriod = quietPeriod;
+	}
+
+	public void start() throws IOException {
+		watchService = FileSystems.getDefault().newWatchService();
+		registerDirectories();
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "putnami-sync-" + sync.getTarget().getName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops watching, and waits for a running synchronization to complete, so that the target is not
+	 * written once the watcher is closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (thread != null) {
+			thread.interrupt();
+		}
+		if (watchService != null) {
+			watchService.close();
+		}
+		if (thread != null && thread != Thread.currentThread()) {
+			try {
+				thread.join(CLOSE_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void watch() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				reset(watchService.take());
+				WatchKey key = watchService.poll(quietPeriod, TimeUnit.MILLISECONDS);
+				while (key != null) {
+					reset(key);
+					key = watchService.poll(quietPeriod, TimeUnit.MILLISECONDS);
+				}
+				try {
+					// New folders, and source folders deleted and created again, must be watched too.
+					registerDirectories();
+					sync.sync();
+					if (sync.getCopied() > 0 || sync.getDeleted() > 0) {
+						logger.lifecycle("{} synchronized: {} copied, {} deleted",
+							sync.getTarget(), sync.getCopied(), sync.getDeleted());
+					}
+				} catch (IOException e) {
+					logger.warn("Fail to synchronize " + sync.getTarget(), e);
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// The watcher is closed
+		}
+	}
+
+	private static void reset(WatchKey key) {
+		key.pollEvents();
+		key.reset();
+	}
+
+	private void registerDirectories() throws IOException {
+		for (File directory : sync.getDirectories()) {
+			if (directory.isDirectory()) {
+				Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+						dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+							StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			}
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Shared locks marking the folders used by live JVMs, taken on the lock file of the folder.
+ * <p>
+ * A JVM can only hold one lock on a file, the holders of a JVM share it. The holders are tracked per
+ * class loader: when the lock is already held by another class loader of the JVM, the folder is
+ * marked as used by this JVM, and the holders of this class loader take no lock of their own. This
+ * class only depends on the JDK, it also runs in the compiler daemon and in the gradle workers.
+ * </p>
+ */
+public final class FolderLock {
+
+	public static final String LOCK_FILE = ".lock";
+
+	private static final Map<String, Holder> HOLDERS = new HashMap<>();
+	private static final Set<String> HELD_UNTIL_EXIT = new HashSet<>();
+
+	private FolderLock() {
+	}
+
+	/**
+	 * Takes the shared lock of the folder, to be closed once the folder is no longer used.
+	 */
+	public static Closeable acquireShared(File folder) throws IOException {
+		final String key = folder.getCanonicalPath();
+		synchronized (HOLDERS) {
+			Holder holder = HOLDERS.get(key);
+			if (holder == null) {
+				folder.mkdirs();
+				FileChannel channel = FileChannel.open(new File(folder, LOCK_FILE).toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+				try {
+					channel.lock(0, Long.MAX_VALUE, true);
+				} catch (OverlappingFileLockException e) {
+					// held by another class loader of this JVM
+					channel.close();
+					channel = null;
+				} catch (IOException | RuntimeException e) {
+					channel.close();
+					throw e;
+				}
+				holder = new Holder(channel);
+				HOLDERS.put(key, holder);
+			}
+			holder.users++;
+		}
+		return new Closeable() {
+			private boolean closed;
+
+			@Override
+			public void close() throws IOException {
+				synchronized (HOLDERS) {
+					if (closed) {
+						return;
+					}
+					closed = true;
+					Holder holder = HOLDERS.get(key);
+					holder.users--;
+					if (holder.users == 0) {
+						HOLDERS.remove(key);
+						if (holder.channel != null) {
+							holder.channel.close();
+						}
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Holds the shared lock of the folder until the JVM exits.
+	 */
+	public static void holdUntilExit(File folder) throws IOException {
+		String key = folder.getCanonicalPath();
+		synchronized (HOLDERS) {
+			if (!HELD_UNTIL_EXIT.contains(key)) {
+				acquireShared(folder);
+				HELD_UNTIL_EXIT.add(key);
+			}
+		}
+	}
+
+	/**
+	 * @return true when the folder is locked by this JVM or by another process
+	 */
+	public static boolean isInUse(File folder) {
+		File lockFile = new File(folder, LOCK_FILE);
+		synchronized (HOLDERS) {
+			try {
+				if (HOLDERS.containsKey(folder.getCanonicalPath())) {
+					return true;
+				}
+				if (!lockFile.isFile()) {
+					return false;
+				}
+				// Closing a channel releases the locks of the JVM on the file, this JVM holds none.
+				try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.WRITE)) {
+					FileLock lock = channel.tryLock(0, Long.MAX_VALUE, false);
+					if (lock == null) {
+						return true;
+					}
+					lock.release();
+					return false;
+				}
+			} catch (IOException | OverlappingFileLockException e) {
+				return true;
+			}
+		}
+	}
+
+	private static final class Holder {
+		private final FileChannel channel;
+		private int users;
+
+		private Holder(FileChannel channel) {
+			this.channel = channel;
+		}
+	}
+}
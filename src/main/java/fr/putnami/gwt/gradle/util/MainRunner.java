@@ -0,0 +1,149 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.security.Permission;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Invokes a main class in the current JVM. The GWT entry points end with System.exit(), the calls
+ * made from the invoking thread are turned into an exit status instead of stopping the JVM.
+ */
+public final class MainRunner {
+
+	private static final ThreadLocal<Boolean> TRAPPED = new ThreadLocal<>();
+
+	private static SecurityManager previousManager;
+	private static int running = 0;
+
+	private MainRunner() {
+	}
+
+	/**
+	 * Same as {@link #run(ClassLoader, String, String[])} with the given system properties set during
+	 * the run. Callers must not run concurrently as system properties are JVM wide.
+	 */
+	public static int run(ClassLoader loader, String mainClass, String[] args, Map<String, String> systemProperties)
+		throws Exception {
+		Map<String, String> previousProperties = new HashMap<>();
+		for (Map.Entry<String, String> property : systemProperties.entrySet()) {
+			previousProperties.put(property.getKey(), System.getProperty(property.getKey()));
+			System.setProperty(property.getKey(), property.getValue());
+		}
+		try {
+			return run(loader, mainClass, args);
+		} finally {
+			for (Map.Entry<String, String> property : previousProperties.entrySet()) {
+				if (property.getValue() == null) {
+					System.clearProperty(property.getKey());
+				} else {
+					System.setProperty(property.getKey(), property.getValue());
+				}
+			}
+		}
+	}
+
+	public static int run(ClassLoader loader, String mainClass, String[] args) throws Exception {
+		Thread thread = Thread.currentThread();
+		ClassLoader previousLoader = thread.getContextClassLoader();
+		thread.setContextClassLoader(loader);
+		install();
+		TRAPPED.set(Boolean.TRUE);
+		try {
+			Class<?> entryPoint = Class.forName(mainClass, true, loader);
+			Method mainMethod = entryPoint.getMethod("main", String[].class);
+			mainMethod.invoke(null, new Object[] {args});
+			return 0;
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof ExitException) {
+				return ((ExitException) e.getCause()).getStatus();
+			}
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		} finally {
+			TRAPPED.remove();
+			uninstall();
+			thread.setContextClassLoader(previousLoader);
+		}
+	}
+
+	private static synchronized void install() {
+		if (running == 0) {
+			previousManager = System.getSecurityManager();
+			System.setSecurityManager(new ExitTrapSecurityManager(previousManager));
+		}
+		running++;
+	}
+
+	private static synchronized void uninstall() {
+		running--;
+		if (running == 0) {
+			System.setSecurityManager(previousManager);
+			previousManager = null;
+		}
+	}
+
+	private static final class ExitTrapSecurityManager extends SecurityManager {
+		private final SecurityManager delegate;
+
+		private ExitTrapSecurityManager(SecurityManager delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void checkPermission(Permission perm) {
+			if (delegate != null) {
+				delegate.checkPermission(perm);
+			}
+		}
+
+		@Override
+		public void checkPermission(Permission perm, Object context) {
+			if (delegate != null) {
+				delegate.checkPermission(perm, context);
+			}
+		}
+
+		@Override
+		public void checkExit(int status) {
+			if (Boolean.TRUE.equals(TRAPPED.get())) {
+				throw new ExitException(status);
+			}
+			if (delegate != null) {
+				delegate.checkExit(status);
+			}
+		}
+	}
+
+	private static final class ExitException extends SecurityException {
+		private static final long serialVersionUID = 1L;
+
+		private final int status;
+
+		private ExitException(int status) {
+			super("System.exit(" + status + ")");
+			this.status = status;
+		}
+
+		public int getStatus() {
+			return status;
+		}
+	}
+}
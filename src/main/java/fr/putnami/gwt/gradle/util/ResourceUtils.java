@@ -14,19 +14,39 @@
  */
 package fr.putnami.gwt.gradle.util;
 
+import com.google.common.collect.Lists;
 import com.google.common.io.ByteStreams;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public final class ResourceUtils {
+
+	/**
+	 * File copies are bound by the latency of each file operation rather than by the CPU, the pool
+	 * allows a few more threads than cores, within a limit.
+	 */
+	private static final int COPY_PARALLELISM = Math.max(2, Math.min(16, Runtime.getRuntime().availableProcessors() * 2));
+	private static final ForkJoinPool COPY_POOL = new ForkJoinPool(COPY_PARALLELISM);
+
 	private ResourceUtils() {
 	}
 
@@ -84,31 +104,99 @@ public final class ResourceUtils {
 		if (!target.exists()) {
 			target.mkdirs();
 		}
+		if (!source.isDirectory()) {
+			return;
+		}
+
+		final Path sourcePath = source.toPath();
+		final Path targetPath = target.toPath();
+		final List<Callable<Void>> copies = Lists.newArrayList();
+		Files.walkFileTree(sourcePath, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				Files.createDirectories(targetPath.resolve(sourcePath.relativize(dir).toString()));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				final File s = file.toFile();
+				final File t = targetPath.resolve(sourcePath.relativize(file).toString()).toFile();
+				copies.add(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						copy(s, t);
+						return null;
+					}
+				});
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		// The folders are created while walking, the file copies are then spread on the copy pool.
+		runParallel(copies);
+	}
 
-		String[] files = source.list();
-		if (files != null) {
-			for (String fileName : files) {
-				File s = new File(source, fileName);
-				File t = new File(target, fileName);
-				if (s.isDirectory()) {
-					copyDirectory(s, t);
-				} else {
-					copy(s, t);
+	/**
+	 * Runs the file operations on the shared copy pool and waits for their completion. The first
+	 * failure is rethrown once all the operations are done.
+	 */
+	public static void runParallel(List<? extends Callable<Void>> operations) throws IOException {
+		if (operations.size() < 2) {
+			for (Callable<Void> operation : operations) {
+				call(operation);
+			}
+			return;
+		}
+		List<ForkJoinTask<Void>> tasks = Lists.newArrayList();
+		for (Callable<Void> operation : operations) {
+			tasks.add(COPY_POOL.submit(operation));
+		}
+		IOException failure = null;
+		for (ForkJoinTask<Void> task : tasks) {
+			try {
+				task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
 				}
 			}
 		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private static void call(Callable<Void> operation) throws IOException {
+		try {
+			operation.call();
+		} catch (IOException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
 	}
 
+	/**
+	 * Copies the source file with a zero-copy channel transfer. The modification time is preserved,
+	 * so that the up to date checks can compare the source and the target. The copy stops at the end
+	 * of the source, also when the source is truncated during the copy.
+	 */
 	public static void copy(File source, File target) throws IOException {
 		try (
-			InputStream in = new FileInputStream(source);
-			OutputStream out = new FileOutputStream(target)) {
-			byte[] buf = new byte[1024];
-			int length;
-			while ((length = in.read(buf)) > 0) {
-				out.write(buf, 0, length);
+			FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+			FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			long position = 0;
+			long transferred = 1;
+			while (transferred > 0 && position < in.size()) {
+				transferred = in.transferTo(position, in.size() - position, out);
+				position += transferred;
 			}
 		}
+		Files.setLastModifiedTime(target.toPath(), Files.getLastModifiedTime(source.toPath()));
 	}
 
 	public static boolean deleteDirectory(File directory) {
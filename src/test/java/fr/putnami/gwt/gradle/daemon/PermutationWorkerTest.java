@@ -0,0 +1,230 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.daemon;
+
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import fr.putnami.gwt.gradle.helper.PermutationWorkerClient;
+import fr.putnami.gwt.gradle.helper.PermutationWorkerClient.Job;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PermutationWorkerTest {
+
+	private static final Logger LOGGER = Logging.getLogger(PermutationWorkerTest.class);
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private final List<String> compiled = Collections.synchronizedList(Lists.<String> newArrayList());
+	private File workerDir;
+	private ServerSocket server;
+	private Thread serving;
+
+	@Before
+	public void startWorker() throws IOException {
+		workerDir = temp.newFolder("worker");
+		final PermutationWorker worker = new PermutationWorker(workerDir, "2.8.2", "secret", 2,
+			new PermutationWorker.Compiler() {
+				@Override
+				public int compile(File workDir, String moduleName, int permutation) throws IOException {
+					// the stub compiler writes the linked precompilation followed by the permutation
+					File compilerDir = new File(workDir, moduleName + "/compiler");
+					String precompilation = read(new File(compilerDir, "precompilation.ser"));
+					compiled.add(moduleName + "#" + permutation);
+					write(new File(compilerDir, "permutation-" + permutation + ".js"), precompilation + "#" + permutation);
+					return 0;
+				}
+			}, LOGGER);
+		server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		serving = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					worker.serve(server);
+				} catch (IOException e) {
+					// the server socket is closed
+				}
+			}
+		});
+		serving.start();
+	}
+
+	@After
+	public void stopWorker() throws Exception {
+		server.close();
+		serving.join(5000);
+	}
+
+	@Test
+	public void uploadsAMissingPrecompilationAndLinksIt() throws Exception {
+		File precompilation = write(temp.newFile(), "program");
+		File target = new File(temp.getRoot(), "out/permutation-0.js");
+
+		List<Job> left = compile("secret", "2.8.2", job(0, precompilation, hash(precompilation), target));
+
+		assertTrue(left.isEmpty());
+		assertEquals("program#0", read(target));
+		assertEquals(Arrays.asList("app#0"), compiled);
+		assertEquals("program",
+			read(new File(workerDir, "precompilations/" + hash(precompilation) + "/precompilation.ser")));
+	}
+
+	@Test
+	public void reusesTheCachedPrecompilation() throws Exception {
+		File precompilation = write(temp.newFile(), "program");
+		String hash = hash(precompilation);
+		compile("secret", "2.8.2", job(0, precompilation, hash, new File(temp.getRoot(), "out/permutation-0.js")));
+		// the worker must not ask for the precompilation again
+		Files.delete(precompilation.toPath());
+		File target = new File(temp.getRoot(), "out/permutation-1.js");
+
+		List<Job> left = compile("secret", "2.8.2", job(1, precompilation, hash, target));
+
+		assertTrue(left.isEmpty());
+		assertEquals("program#1", read(target));
+	}
+
+	@Test
+	public void rejectsAnInvalidToken() throws Exception {
+		File precompilation = write(temp.newFile(), "program");
+		File target = new File(temp.getRoot(), "out/permutation-0.js");
+		Job job = job(0, precompilation, hash(precompilation), target);
+
+		List<Job> left = compile("guess", "2.8.2", job);
+
+		assertEquals(Arrays.asList(job), left);
+		assertTrue(compiled.isEmpty());
+		assertFalse(target.exists());
+	}
+
+	@Test
+	public void rejectsAnotherGwtVersion() throws Exception {
+		File precompilation = write(temp.newFile(), "program");
+		Job job = job(0, precompilation, hash(precompilation), new File(temp.getRoot(), "out/permutation-0.js"));
+
+		List<Job> left = compile("secret", "2.7.0", job);
+
+		assertEquals(Arrays.asList(job), left);
+		assertTrue(compiled.isEmpty());
+	}
+
+	@Test
+	public void rejectsAnUploadNotMatchingItsHash() throws Exception {
+		File precompilation = write(temp.newFile(), "program");
+		String otherHash = hash(write(temp.newFile(), "other program"));
+		Job job = job(0, precompilation, otherHash, new File(temp.getRoot(), "out/permutation-0.js"));
+
+		List<Job> left = compile("secret", "2.8.2", job);
+
+		assertEquals(Arrays.asList(job), left);
+		assertTrue(compiled.isEmpty());
+		assertFalse(new File(workerDir, "precompilations/" + otherHash).exists());
+	}
+
+	@Test
+	public void copiesExactlyTheSize() throws IOException {
+		byte[] data = new byte[200 * 1024];
+		new Random(42).nextBytes(data);
+		InputStream in = new ByteArrayInputStream(data);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		PermutationWorker.copy(in, out, 150 * 1024);
+
+		assertArrayEquals(Arrays.copyOf(data, 150 * 1024), out.toByteArray());
+		// the rest of the stream is left for the next message
+		assertEquals(50 * 1024, in.available());
+	}
+
+	@Test
+	public void copiesShortReads() throws IOException {
+		byte[] data = new byte[1000];
+		new Random(42).nextBytes(data);
+		InputStream in = new ByteArrayInputStream(data) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 7));
+			}
+		};
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		PermutationWorker.copy(in, out, data.length);
+
+		assertArrayEquals(data, out.toByteArray());
+	}
+
+	@Test
+	public void copiesNothingForEmptySize() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		PermutationWorker.copy(new ByteArrayInputStream(new byte[10]), out, 0);
+
+		assertEquals(0, out.size());
+	}
+
+	@Test(expected = IOException.class)
+	public void failsWhenTheStreamEndsEarly() throws IOException {
+		PermutationWorker.copy(new ByteArrayInputStream(new byte[10]), new ByteArrayOutputStream(), 11);
+	}
+
+	private List<Job> compile(String token, String gwtVersion, Job job) throws InterruptedException {
+		return new PermutationWorkerClient(Collections.singletonList("127.0.0.1:" + server.getLocalPort()), token,
+			gwtVersion, LOGGER).compile(Collections.singletonList(job));
+	}
+
+	private static Job job(int permutation, File precompilation, String hash, File target) {
+		return new Job("app", permutation, precompilation, hash, target);
+	}
+
+	private static String hash(File file) throws IOException {
+		return Hashing.sha256().hashBytes(Files.readAllBytes(file.toPath())).toString();
+	}
+
+	private static File write(File file, String content) throws IOException {
+		Files.createDirectories(file.getParentFile().toPath());
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private static String read(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+}
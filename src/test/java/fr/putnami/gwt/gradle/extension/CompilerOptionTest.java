@@ -0,0 +1,62 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.extension;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CompilerOptionTest {
+
+	@Test
+	public void fillsTheUnsetSettings() {
+		CompilerOption options = new CompilerOption();
+		options.setProfile("fast");
+
+		options.applyProfile();
+
+		assertEquals(Boolean.TRUE, options.getDraftCompile());
+		assertEquals(Integer.valueOf(0), options.getOptimize());
+		assertEquals(Boolean.TRUE, options.getCollapseAll());
+		assertEquals(Boolean.FALSE, options.getCompileReport());
+	}
+
+	@Test
+	public void keepsTheSettingsSetInTheBuild() {
+		CompilerOption options = new CompilerOption();
+		options.setProfile("production");
+		options.setOptimize(5);
+		options.setStyle("PRETTY");
+		options.setCollapseAll(true);
+
+		options.applyProfile();
+
+		assertEquals(Integer.valueOf(5), options.getOptimize());
+		assertEquals(CodeStyle.PRETTY, options.getStyle());
+		assertEquals(Boolean.TRUE, options.getCollapseAll());
+		assertEquals(Boolean.FALSE, options.getDraftCompile());
+	}
+
+	@Test
+	public void leavesTheSettingsWithoutProfile() {
+		CompilerOption options = new CompilerOption();
+
+		options.applyProfile();
+
+		assertNull(options.getOptimize());
+		assertNull(options.getCollapseAll());
+	}
+}
@@ -0,0 +1,130 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.helper;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompileMetricsTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void timesThePhasesOfTheCompilerOutput() throws IOException {
+		CompileMetrics metrics = new CompileMetrics(1);
+		replay(metrics, compilerOutput());
+
+		String json = writeJson(metrics);
+		assertTrue(json, json.contains("\"module\": \"com.example.App\""));
+		assertTrue(json, json.contains("\"permutationCount\": 2"));
+		assertTrue(json, json.contains("\"moduleLoadMs\": 100"));
+		assertTrue(json, json.contains("\"precompileMs\": 200"));
+		assertTrue(json, json.contains("\"compilePermutationsMs\": 700"));
+		assertTrue(json, json.contains("\"reportedCompileMs\": 1250"));
+		assertTrue(json, json.contains("\"linkMs\": 50"));
+		assertTrue(json, json.contains("\"reportedLinkMs\": 40"));
+		assertTrue(json, json.contains("\"totalMs\": 1050"));
+		assertTrue(json, json.contains("\"durationMs\": 300"));
+		assertTrue(json, json.contains("\"durationMs\": 400"));
+	}
+
+	@Test
+	public void reportsNoPermutationDurationWithSeveralWorkers() throws IOException {
+		CompileMetrics metrics = new CompileMetrics(4);
+		replay(metrics, compilerOutput());
+
+		String json = writeJson(metrics);
+		assertTrue(json, json.contains("\"compilePermutationsMs\": 700"));
+		assertTrue(json, json.contains("\"startMs\""));
+		assertFalse(json, json.contains("\"durationMs\""));
+		String csv = new String(Files.readAllBytes(new File(temp.getRoot(), "compile-metrics.csv").toPath()),
+			StandardCharsets.UTF_8);
+		assertTrue(csv, csv.contains(",com.example.App,permutationStartMs,1,"));
+		assertFalse(csv, csv.contains("permutationMs"));
+	}
+
+	@Test
+	public void timesThePermutationsCompiledByCompilersOfTheirOwn() throws Exception {
+		CompileMetrics metrics = new CompileMetrics(4);
+		metrics.permutationStarted("com.example.App", 0);
+		metrics.permutationStarted("com.example.App", 1);
+		Thread.sleep(20);
+		metrics.permutationCompiled("com.example.App", 1);
+		metrics.permutationCompiled("com.example.App", 0);
+
+		String json = writeJson(metrics);
+		assertTrue(json, json.contains("\"permutationCount\": 2"));
+		assertTrue(json, json.matches("(?s).*\"id\": 0, \"startMs\": \\d+, \"durationMs\": \\d+.*"));
+		assertTrue(json, json.matches("(?s).*\"id\": 1, \"startMs\": \\d+, \"durationMs\": \\d+.*"));
+	}
+
+	@Test
+	public void ignoresLinesBeforeTheModule() throws IOException {
+		CompileMetrics metrics = new CompileMetrics(1);
+		metrics.onLine("Compiling 3 permutations");
+		metrics.onLine("Linking succeeded -- 0.1s");
+
+		String json = writeJson(metrics);
+		assertTrue(json, json.contains("\"modules\": [\n\n  ]"));
+	}
+
+	private static List<String> compilerOutput() {
+		return Lists.newArrayList(
+			"0\tCompiling module com.example.App",
+			"100\t   Computing all possible rebind results for 'com.example.client.Entry'",
+			"300\t   Compiling 2 permutations",
+			"300\t      Compiling permutation 0...",
+			"600\t      Compiling permutation 1...",
+			"1000\t   Compile of permutations succeeded",
+			"1000\t   Compilation succeeded -- 1.250s",
+			"1000\tLinking into /tmp/war",
+			"1050\t   Linking succeeded -- 0.04 s");
+	}
+
+	/**
+	 * Replays the lines as an output log, their times are offsets from now.
+	 */
+	private void replay(CompileMetrics metrics, List<String> lines) throws IOException {
+		long now = System.currentTimeMillis();
+		List<String> log = Lists.newArrayList();
+		for (String line : lines) {
+			int index = line.indexOf('\t');
+			log.add((now + Long.parseLong(line.substring(0, index))) + line.substring(index));
+		}
+		File logFile = temp.newFile();
+		Files.write(logFile.toPath(), log, StandardCharsets.UTF_8);
+		metrics.readOutputLog(logFile);
+	}
+
+	private String writeJson(CompileMetrics metrics) throws IOException {
+		CompileMetrics.writeReports(temp.getRoot(), Collections.singletonList(metrics));
+		return new String(Files.readAllBytes(new File(temp.getRoot(), "compile-metrics.json").toPath()),
+			StandardCharsets.UTF_8);
+	}
+}
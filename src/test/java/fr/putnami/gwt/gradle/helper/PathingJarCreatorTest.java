@@ -0,0 +1,73 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.helper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class PathingJarCreatorTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void listsTheClassPathRelativeToTheJar() throws IOException {
+		File lib = temp.newFile("lib.jar");
+		File classes = temp.newFolder("classes");
+		File jar = new File(temp.getRoot(), "conf/pathing.jar");
+
+		PathingJarCreator creator = new PathingJarCreator(jar);
+		creator.add(lib.getAbsolutePath() + File.pathSeparator + classes.getAbsolutePath());
+		creator.makeJar();
+
+		assertEquals("../lib.jar ../classes/", readClassPath(jar));
+	}
+
+	@Test
+	public void keepsTheJarWhileTheClassPathIsUnchanged() throws IOException {
+		File lib = temp.newFile("lib.jar");
+		File jar = new File(temp.getRoot(), "pathing.jar");
+		PathingJarCreator creator = new PathingJarCreator(jar);
+		creator.add(lib.getAbsolutePath());
+		creator.makeJar();
+		jar.setLastModified(1000L);
+
+		PathingJarCreator same = new PathingJarCreator(jar);
+		same.add(lib.getAbsolutePath());
+		same.makeJar();
+		assertEquals(1000L, jar.lastModified());
+
+		PathingJarCreator changed = new PathingJarCreator(jar);
+		changed.add(lib.getAbsolutePath() + File.pathSeparator + temp.newFile("other.jar").getAbsolutePath());
+		changed.makeJar();
+		assertNotEquals(1000L, jar.lastModified());
+		assertEquals("lib.jar other.jar", readClassPath(jar));
+	}
+
+	private static String readClassPath(File jar) throws IOException {
+		try (JarFile jarFile = new JarFile(jar)) {
+			return jarFile.getManifest().getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+		}
+	}
+}
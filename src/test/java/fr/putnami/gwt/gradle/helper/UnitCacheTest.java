@@ -0,0 +1,147 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.helper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import fr.putnami.gwt.gradle.util.FolderLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UnitCacheTest {
+
+	private static final int KB = 1024;
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void namesTheFolderAfterVersionAndSourceLevel() {
+		assertEquals("2.8.2-1.8", new UnitCache(temp.getRoot(), "2.8.2", "1.8", null).getDir().getName());
+		assertEquals("2.8.2-default", new UnitCache(temp.getRoot(), "2.8.2", "", null).getDir().getName());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedFoldersFirst() throws IOException {
+		File oldest = cacheFolder("2.7.0-1.7", 1000L, 600 * KB);
+		File recent = cacheFolder("2.8.1-1.8", 2000L, 600 * KB);
+
+		acquire(new UnitCache(temp.getRoot(), "2.8.2", "1.8", 1));
+
+		assertFalse(oldest.exists());
+		assertTrue(recent.exists());
+	}
+
+	@Test
+	public void evictsOldestFilesOfTheCurrentFolder() throws IOException {
+		UnitCache cache = new UnitCache(temp.getRoot(), "2.8.2", "1.8", 1);
+		File first = cacheFile(cache.getDir(), "unitCache-1", 1000L, 400 * KB);
+		File second = cacheFile(cache.getDir(), "unitCache-2", 2000L, 400 * KB);
+		File third = cacheFile(cache.getDir(), "unitCache-3", 3000L, 400 * KB);
+
+		acquire(cache);
+
+		assertFalse(first.exists());
+		assertTrue(second.exists());
+		assertTrue(third.exists());
+	}
+
+	@Test
+	public void keepsTheFoldersInUse() throws IOException {
+		File oldest = cacheFolder("2.7.0-1.7", 1000L, 600 * KB);
+		File recent = cacheFolder("2.8.1-1.8", 2000L, 600 * KB);
+
+		try (Closeable lock = FolderLock.acquireShared(oldest)) {
+			acquire(new UnitCache(temp.getRoot(), "2.8.2", "1.8", 1));
+		}
+
+		assertTrue(oldest.exists());
+		assertFalse(recent.exists());
+	}
+
+	@Test
+	public void keepsEverythingWhenUnbounded() throws IOException {
+		File oldest = cacheFolder("2.7.0-1.7", 1000L, 600 * KB);
+		File recent = cacheFolder("2.8.1-1.8", 2000L, 600 * KB);
+
+		acquire(new UnitCache(temp.getRoot(), "2.8.2", "1.8", null));
+
+		assertTrue(oldest.exists());
+		assertTrue(recent.exists());
+	}
+
+	@Test
+	public void skipsTheEvictionWhenAnotherClassLoaderHoldsTheLock() throws IOException {
+		File oldest = cacheFolder("2.7.0-1.7", 1000L, 600 * KB);
+		File recent = cacheFolder("2.8.1-1.8", 2000L, 600 * KB);
+
+		// a lock taken outside of UnitCache, as by the UnitCache class of another class loader
+		try (FileChannel channel = lockFile(new File(temp.getRoot(), ".lock"))) {
+			channel.lock(0, Long.MAX_VALUE, true);
+			acquire(new UnitCache(temp.getRoot(), "2.8.2", "1.8", 1));
+		}
+
+		assertTrue(oldest.exists());
+		assertTrue(recent.exists());
+	}
+
+	@Test
+	public void sharesAFolderLockHeldByAnotherClassLoader() throws IOException {
+		File folder = cacheFolder("2.7.0-1.7", 1000L, 0);
+
+		try (FileChannel channel = lockFile(new File(folder, FolderLock.LOCK_FILE))) {
+			channel.lock(0, Long.MAX_VALUE, true);
+			try (Closeable lock = FolderLock.acquireShared(folder)) {
+				assertTrue(FolderLock.isInUse(folder));
+			}
+			assertTrue(FolderLock.isInUse(folder));
+		}
+	}
+
+	private static FileChannel lockFile(File file) throws IOException {
+		return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+			StandardOpenOption.WRITE);
+	}
+
+	private static void acquire(UnitCache cache) throws IOException {
+		cache.acquire().close();
+	}
+
+	private File cacheFolder(String name, long lastUsed, int size) throws IOException {
+		File folder = new File(temp.getRoot(), name);
+		cacheFile(folder, "unitCache", lastUsed, size);
+		cacheFile(folder, ".last-used", lastUsed, 0);
+		return folder;
+	}
+
+	private static File cacheFile(File folder, String name, long lastModified, int size) throws IOException {
+		folder.mkdirs();
+		File file = new File(folder, name);
+		Files.write(file.toPath(), new byte[size]);
+		file.setLastModified(lastModified);
+		return file;
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.task;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+public class GwtCompilePermsTaskTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void readsThePermutationCount() throws IOException {
+		File compilerDir = temp.newFolder("compiler");
+		Files.write(new File(compilerDir, "permCount.txt").toPath(), "12\n".getBytes(StandardCharsets.UTF_8));
+
+		assertEquals(12, GwtCompilePermsTask.readPermCount(compilerDir));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void failsWithoutPrecompilation() throws IOException {
+		GwtCompilePermsTask.readPermCount(temp.newFolder("compiler"));
+	}
+
+	@Test
+	public void keysThePermutationsByPrecompilationContent() throws IOException {
+		File precompilation = temp.newFile("precompilation.ser");
+		Files.write(precompilation.toPath(), new byte[] {1, 2, 3});
+		String hash = GwtCompilePermsTask.hash(precompilation);
+		precompilation.setLastModified(1000L);
+		assertEquals(hash, GwtCompilePermsTask.hash(precompilation));
+
+		Files.write(precompilation.toPath(), new byte[] {1, 2, 4});
+		assertNotEquals(hash, GwtCompilePermsTask.hash(precompilation));
+	}
+
+	@Test
+	public void parsesTheShard() {
+		assertArrayEquals(new int[] {0, 1}, GwtCompilePermsTask.parseShard(null));
+		assertArrayEquals(new int[] {0, 1}, GwtCompilePermsTask.parseShard(""));
+		assertArrayEquals(new int[] {2, 4}, GwtCompilePermsTask.parseShard(" 2 / 4 "));
+	}
+
+	@Test
+	public void rejectsInvalidShards() {
+		for (String shard : Arrays.asList("4/4", "-1/4", "1/0", "1", "a/b", "1/2/3")) {
+			try {
+				GwtCompilePermsTask.parseShard(shard);
+				fail(shard);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void dealsThePermutationsOfAllModulesInTurn() {
+		int[] first = {0, 3};
+		int[] second = {1, 3};
+		// a module of 4 permutations, then a module of 5 permutations starting at position 4
+		assertEquals(Arrays.asList(0, 3), GwtCompilePermsTask.slice(0, 4, first));
+		assertEquals(Arrays.asList(2), GwtCompilePermsTask.slice(4, 5, first));
+		assertEquals(Arrays.asList(1), GwtCompilePermsTask.slice(0, 4, second));
+		assertEquals(Arrays.asList(0, 3), GwtCompilePermsTask.slice(4, 5, second));
+		assertEquals(Collections.<Integer> emptyList(), GwtCompilePermsTask.slice(0, 1, second));
+	}
+
+	@Test
+	public void coversEachPermutationOnce() {
+		int count = 4;
+		int[] dealt = new int[7];
+		for (int index = 0; index < count; index++) {
+			List<Integer> slice = GwtCompilePermsTask.slice(3, dealt.length, new int[] {index, count});
+			for (int permutation : slice) {
+				dealt[permutation]++;
+			}
+		}
+		int[] once = new int[dealt.length];
+		Arrays.fill(once, 1);
+		assertArrayEquals(once, dealt);
+	}
+
+	@Test
+	public void namesThePermutationFiles() {
+		assertEquals("permutation-3.js", GwtCompilePermsTask.getPermFileName(3));
+	}
+}
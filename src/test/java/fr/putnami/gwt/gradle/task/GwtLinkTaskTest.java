@@ -0,0 +1,91 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.task;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GwtLinkTaskTest {
+
+	private final List<File> permsDirs = Arrays.asList(new File("shard0"), new File("shard1"));
+
+	@Test
+	public void acceptsShardsOfTheSamePrecompilation() {
+		List<Properties> shards = Arrays.asList(shard("0/2", "abc", "0,2"), shard("1/2", "abc", "1"));
+
+		assertEquals("abc", GwtLinkTask.checkPrecompilation("com.example.App", "app", shards, permsDirs));
+	}
+
+	@Test
+	public void rejectsShardsOfDifferentPrecompilations() {
+		List<Properties> shards = Arrays.asList(shard("0/2", "abc", "0"), shard("1/2", "def", "1"));
+		try {
+			GwtLinkTask.checkPrecompilation("com.example.App", "app", shards, permsDirs);
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("different precompilations"));
+		}
+	}
+
+	@Test
+	public void rejectsShardsWithoutTheModule() {
+		List<Properties> shards = Arrays.asList(shard("0/2", "abc", "0"), new Properties());
+		try {
+			GwtLinkTask.checkPrecompilation("com.example.App", "app", shards, permsDirs);
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("No permutation of com.example.App"));
+		}
+	}
+
+	@Test
+	public void takesEachPermutationFromTheFirstShardProvidingIt() {
+		List<Properties> shards = Arrays.asList(shard("0/2", "abc", "0,2"), shard("1/2", "abc", "1,2,"));
+
+		Map<Integer, File> permutations = GwtLinkTask.collectPermutations("app", shards, permsDirs);
+
+		assertEquals(Arrays.asList(0, 1, 2), Arrays.asList(permutations.keySet().toArray()));
+		assertEquals(permsDirs.get(0), permutations.get(0));
+		assertEquals(permsDirs.get(1), permutations.get(1));
+		assertEquals(permsDirs.get(0), permutations.get(2));
+	}
+
+	@Test
+	public void collectsNothingFromAnEmptySlice() {
+		List<Properties> shards = Arrays.asList(shard("0/2", "abc", ""), shard("1/2", "abc", "0"));
+
+		Map<Integer, File> permutations = GwtLinkTask.collectPermutations("app", shards, permsDirs);
+
+		assertEquals(1, permutations.size());
+		assertEquals(permsDirs.get(1), permutations.get(0));
+	}
+
+	private static Properties shard(String shard, String precompilation, String permutations) {
+		Properties properties = new Properties();
+		properties.setProperty("shard", shard);
+		properties.setProperty("app.precompilation", precompilation);
+		properties.setProperty("app.permutations", permutations);
+		return properties;
+	}
+}
@@ -0,0 +1,219 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.util;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import fr.putnami.gwt.gradle.extension.WarLinkMode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DirectorySyncTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private File source;
+	private File target;
+	private File manifest;
+
+	@Before
+	public void setUp() throws IOException {
+		source = temp.newFolder("source");
+		target = temp.newFolder("target");
+		manifest = new File(temp.getRoot(), "sync.manifest");
+	}
+
+	@Test
+	public void copiesOnlyChangedFiles() throws IOException {
+		write(new File(source, "a.txt"), "a");
+		write(new File(source, "sub/b.txt"), "b");
+
+		DirectorySync sync = new DirectorySync(target, manifest).addDirectory(source, "");
+		sync.sync();
+		assertEquals(2, sync.getCopied());
+		assertEquals("b", read(new File(target, "sub/b.txt")));
+
+		sync.sync();
+		assertEquals(0, sync.getCopied());
+		assertEquals(2, sync.getUnchanged());
+
+		File a = new File(source, "a.txt");
+		write(a, "a changed");
+		a.setLastModified(a.lastModified() + 2000);
+		sync.sync();
+		assertEquals(1, sync.getCopied());
+		assertEquals("a changed", read(new File(target, "a.txt")));
+	}
+
+	@Test
+	public void deletesRemovedFilesOnly() throws IOException {
+		write(new File(source, "a.txt"), "a");
+		write(new File(source, "b.txt"), "b");
+		write(new File(target, "foreign.txt"), "foreign");
+
+		DirectorySync sync = new DirectorySync(target, manifest).addDirectory(source, "");
+		sync.sync();
+		assertTrue(new File(source, "b.txt").delete());
+		sync.sync();
+
+		assertEquals(1, sync.getDeleted());
+		assertFalse(new File(target, "b.txt").exists());
+		assertTrue(new File(target, "a.txt").isFile());
+		assertTrue(new File(target, "foreign.txt").isFile());
+	}
+
+	@Test
+	public void deletesTheFoldersLeftEmpty() throws IOException {
+		write(new File(source, "a.txt"), "a");
+		write(new File(source, "sub/deep/b.txt"), "b");
+		write(new File(target, "kept/foreign.txt"), "foreign");
+		write(new File(source, "kept/c.txt"), "c");
+
+		DirectorySync sync = new DirectorySync(target, manifest).addDirectory(source, "");
+		sync.sync();
+		assertTrue(new File(source, "sub/deep/b.txt").delete());
+		assertTrue(new File(source, "kept/c.txt").delete());
+		sync.sync();
+
+		assertFalse(new File(target, "sub").exists());
+		assertTrue(new File(target, "kept/foreign.txt").isFile());
+		assertTrue(target.isDirectory());
+	}
+
+	@Test
+	public void retriesTheFailedDeletes() throws IOException {
+		write(new File(source, "a.txt"), "a");
+		DirectorySync sync = new DirectorySync(target, manifest).addDirectory(source, "");
+		sync.sync();
+		// a non empty folder in place of the file cannot be deleted
+		File a = new File(target, "a.txt");
+		assertTrue(a.delete());
+		write(new File(a, "content.txt"), "content");
+		assertTrue(new File(source, "a.txt").delete());
+
+		sync.sync();
+		assertEquals(0, sync.getDeleted());
+		assertTrue(a.exists());
+
+		assertTrue(new File(a, "content.txt").delete());
+		sync.sync();
+		assertEquals(1, sync.getDeleted());
+		assertFalse(a.exists());
+	}
+
+	@Test
+	public void transfersAgainWhenTheSourceChanges() throws IOException {
+		File other = temp.newFolder("other");
+		File first = new File(source, "a.txt");
+		File second = new File(other, "a.txt");
+		write(first, "first");
+		write(second, "other");
+		second.setLastModified(first.lastModified());
+
+		new DirectorySync(target, manifest).addDirectory(source, "").sync();
+		DirectorySync sync = new DirectorySync(target, manifest).addDirectory(other, "");
+		sync.sync();
+
+		assertEquals(1, sync.getCopied());
+		assertEquals("other", read(new File(target, "a.txt")));
+	}
+
+	@Test
+	public void replacesTheManifest() throws IOException {
+		write(new File(source, "a.txt"), "a");
+		write(manifest, "previous");
+
+		new DirectorySync(target, manifest).addDirectory(source, "").sync();
+
+		assertTrue(read(manifest).contains("a.txt="));
+		String[] manifests = manifest.getParentFile().list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(manifest.getName());
+			}
+		});
+		assertEquals(Arrays.asList(manifest.getName()), Arrays.asList(manifests));
+	}
+
+	@Test
+	public void lastSourceWins() throws IOException {
+		File other = temp.newFolder("other");
+		write(new File(source, "a.txt"), "first");
+		write(new File(other, "a.txt"), "last");
+
+		new DirectorySync(target, manifest).addDirectory(source, "dir").addDirectory(other, "dir").sync();
+
+		assertEquals("last", read(new File(target, "dir/a.txt")));
+	}
+
+	@Test
+	public void skipsExcludedPath() throws IOException {
+		write(new File(source, "a.txt"), "a");
+		write(new File(source, "WEB-INF/lib/lib.jar"), "jar");
+		write(new File(source, "WEB-INF/web.xml"), "xml");
+
+		new DirectorySync(target, manifest).addDirectory(source, "war", "WEB-INF/lib").sync();
+
+		assertTrue(new File(target, "war/a.txt").isFile());
+		assertTrue(new File(target, "war/WEB-INF/web.xml").isFile());
+		assertFalse(new File(target, "war/WEB-INF/lib/lib.jar").exists());
+	}
+
+	@Test
+	public void linksFilesInHardLinkMode() throws IOException {
+		File a = new File(source, "a.txt");
+		write(a, "a");
+
+		new DirectorySync(target, manifest).addFile(a, "a.txt", WarLinkMode.HARDLINK).sync();
+
+		assertTrue(Files.isSameFile(a.toPath(), new File(target, "a.txt").toPath()));
+	}
+
+	@Test
+	public void replacesLinkWithoutAlteringLinkedFile() throws IOException {
+		File a = new File(source, "a.txt");
+		write(a, "a");
+		new DirectorySync(target, manifest).addFile(a, "a.txt", WarLinkMode.HARDLINK).sync();
+
+		File other = temp.newFolder("other");
+		write(new File(other, "a.txt"), "other");
+		new DirectorySync(target, manifest).addDirectory(other, "").sync();
+
+		assertEquals("a", read(a));
+		assertEquals("other", read(new File(target, "a.txt")));
+	}
+
+	private static void write(File file, String content) throws IOException {
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String read(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,169 @@
+/**
+ * This file is part of pwt.
+ *
+ * pwt is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * pwt is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with pwt. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package fr.putnami.gwt.gradle.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResourceUtilsTest {
+
+	/** Runs of each copy, the fastest one is compared. */
+	private static final int RUNS = 5;
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void copyPreservesTheModificationTime() throws IOException {
+		File source = write(temp.newFile(), 1000);
+		FileTime modified = FileTime.fromMillis(TimeUnit.DAYS.toMillis(10000));
+		Files.setLastModifiedTime(source.toPath(), modified);
+		File target = new File(temp.getRoot(), "target");
+
+		ResourceUtils.copy(source, target);
+
+		assertEquals(modified, Files.getLastModifiedTime(target.toPath()));
+		assertArrayEquals(Files.readAllBytes(source.toPath()), Files.readAllBytes(target.toPath()));
+	}
+
+	@Test
+	public void copyReplacesALongerTarget() throws IOException {
+		File source = write(temp.newFile(), 10);
+		File target = write(temp.newFile(), 1000);
+
+		ResourceUtils.copy(source, target);
+
+		assertArrayEquals(Files.readAllBytes(source.toPath()), Files.readAllBytes(target.toPath()));
+	}
+
+	@Test
+	public void copyDirectoryCopiesTheTree() throws IOException {
+		File source = temp.newFolder("source");
+		write(new File(source, "a.bin"), 10);
+		write(new File(source, "sub/b.bin"), 20);
+		new File(source, "empty").mkdirs();
+		File target = new File(temp.getRoot(), "target");
+
+		ResourceUtils.copyDirectory(source, target);
+
+		assertEquals(10, new File(target, "a.bin").length());
+		assertEquals(20, new File(target, "sub/b.bin").length());
+		assertTrue(new File(target, "empty").isDirectory());
+	}
+
+	/**
+	 * Timed comparison of the channel transfer with the 1 KB stream copy it replaced. The bound is
+	 * loose, the figures are printed for comparison.
+	 */
+	@Test
+	public void transferIsNotSlowerThanStreamCopy() throws IOException {
+		File source = write(temp.newFile(), 64 * 1024 * 1024);
+		final File target = new File(temp.getRoot(), "target");
+
+		long stream = Long.MAX_VALUE;
+		long transfer = Long.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			streamCopy(source, target);
+			stream = Math.min(stream, System.nanoTime() - start);
+			start = System.nanoTime();
+			ResourceUtils.copy(source, target);
+			transfer = Math.min(transfer, System.nanoTime() - start);
+		}
+		System.out.println("copy of 64 MB: stream " + millis(stream) + " ms, transferTo " + millis(transfer) + " ms");
+		assertTrue(transfer < stream * 2);
+	}
+
+	/**
+	 * Timed comparison of the parallel copyDirectory with a serial copy of the same files. The bound
+	 * is loose and only checked with several processors, the figures are printed for comparison.
+	 */
+	@Test
+	public void parallelCopyIsNotSlowerThanSerialCopy() throws IOException {
+		File source = temp.newFolder("source");
+		for (int i = 0; i < 2000; i++) {
+			write(new File(source, "dir-" + (i % 20) + "/file-" + i + ".bin"), 16 * 1024);
+		}
+
+		long serial = Long.MAX_VALUE;
+		long parallel = Long.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++) {
+			File serialTarget = temp.newFolder("serial-" + i);
+			long start = System.nanoTime();
+			serialCopy(source, serialTarget);
+			serial = Math.min(serial, System.nanoTime() - start);
+			File parallelTarget = temp.newFolder("parallel-" + i);
+			start = System.nanoTime();
+			ResourceUtils.copyDirectory(source, parallelTarget);
+			parallel = Math.min(parallel, System.nanoTime() - start);
+		}
+		System.out.println("copy of 2000 files: serial " + millis(serial) + " ms, parallel " + millis(parallel)
+			+ " ms");
+		if (Runtime.getRuntime().availableProcessors() > 1) {
+			assertTrue(parallel < serial * 2);
+		}
+	}
+
+	private static void streamCopy(File source, File target) throws IOException {
+		try (
+			InputStream in = new FileInputStream(source);
+			OutputStream out = new FileOutputStream(target)) {
+			byte[] buf = new byte[1024];
+			int length;
+			while ((length = in.read(buf)) > 0) {
+				out.write(buf, 0, length);
+			}
+		}
+	}
+
+	private static void serialCopy(File source, File target) throws IOException {
+		target.mkdirs();
+		for (File file : source.listFiles()) {
+			if (file.isDirectory()) {
+				serialCopy(file, new File(target, file.getName()));
+			} else {
+				ResourceUtils.copy(file, new File(target, file.getName()));
+			}
+		}
+	}
+
+	private static long millis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	private static File write(File file, int size) throws IOException {
+		byte[] data = new byte[size];
+		new Random(size).nextBytes(data);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), data);
+		return file;
+	}
+}